@@ -1,14 +1,17 @@
 package pl.polidea.coverflow;
 
-import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.util.Log;
+import android.graphics.drawable.Drawable;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
 
@@ -16,23 +19,532 @@ import android.widget.ImageView;
  * This class is an adapter that provides base, abstract class for images
  * adapter.
  * 
+ * Bitmaps may be requested from background loaders and the UI thread at the
+ * same time, so the adapter does not lock: configuration is kept in volatile
+ * fields, the cache is expected to be thread safe and a bitmap requested by
+ * several threads at once is created only once. Views are created and bound
+ * on the UI thread only.
+ * 
  */
 public abstract class AbstractCoverFlowImageAdapter extends BaseAdapter {
 
-    /** The Constant TAG. */
-    private static final String TAG = AbstractCoverFlowImageAdapter.class.getSimpleName();
-
     /** The width. */
-    private float width = 0;
+    private volatile float width = 0;
 
     /** The height. */
-    private float height = 0;
+    private volatile float height = 0;
+
+    /** The default size of bitmap cache - fraction of the heap available. */
+    private static final int DEFAULT_CACHE_HEAP_FRACTION = 8;
+
+    /** The default size of thumbnail cache - fraction of the heap available. */
+    private static final int DEFAULT_THUMBNAIL_CACHE_HEAP_FRACTION = 32;
+
+    /**
+     * Number of mipmap levels: full size bitmaps, half size and quarter size
+     * mipmaps.
+     */
+    public static final int MIPMAP_LEVELS = 3;
+
+    /**
+     * The default size of the cache of half size mipmaps - fraction of the
+     * heap available. Each further level gets a quarter of the previous one.
+     */
+    private static final int DEFAULT_MIPMAP_CACHE_HEAP_FRACTION = 32;
+
+    /** The bitmap cache. */
+    private volatile BitmapCache bitmapCache = new LruBitmapCache(Runtime.getRuntime().maxMemory()
+            / DEFAULT_CACHE_HEAP_FRACTION);
+
+    /** Update run when only cached bitmaps change positions. */
+    private static final Runnable NO_UPDATE = new Runnable() {
+        @Override
+        public void run() {
+            // item data is unchanged
+        }
+    };
+
+    /** The thumbnail cache, budgeted separately from full size bitmaps. */
+    private volatile BitmapCache thumbnailCache = new LruBitmapCache(Runtime.getRuntime().maxMemory()
+            / DEFAULT_THUMBNAIL_CACHE_HEAP_FRACTION);
+
+    /** Caches of mipmaps, index is the level minus one. Replaced, never modified, once set. */
+    private volatile BitmapCache[] mipmapCaches;
+
+    /** The pool bitmaps go to when neither cached nor displayed. */
+    private volatile BitmapPool bitmapPool = BitmapPool.getDefault();
+
+    /** The store sharing bitmaps with keys between adapters. */
+    private volatile SharedBitmapStore sharedStore = SharedBitmapStore.getDefault();
+
+    /** Bitmaps being created, by position. */
+    private final ConcurrentHashMap<Integer, PendingBitmap> pendingItems =
+            new ConcurrentHashMap<Integer, PendingBitmap>();
+
+    /** Thumbnails being created, by position. */
+    private final ConcurrentHashMap<Integer, PendingBitmap> pendingThumbnails =
+            new ConcurrentHashMap<Integer, PendingBitmap>();
+
+    /** Bitmaps displayed by image views created by this adapter, UI thread only. */
+    private final WeakHashMap<ImageView, Bitmap> boundBitmaps = new WeakHashMap<ImageView, Bitmap>();
+
+    /** Positions of thumbnails displayed by image views, UI thread only. */
+    private final WeakHashMap<ImageView, Integer> thumbnailPositions = new WeakHashMap<ImageView, Integer>();
+
+    /** Positions of mipmaps displayed by image views, UI thread only. */
+    private final WeakHashMap<ImageView, Integer> mipmapPositions = new WeakHashMap<ImageView, Integer>();
+
+    /** Mipmap scalers reused by each thread creating mipmaps. */
+    private final ThreadLocal<MipmapScaler> mipmapScalers = new ThreadLocal<MipmapScaler>() {
+        @Override
+        protected MipmapScaler initialValue() {
+            return new MipmapScaler();
+        }
+    };
+
+    /** Releases bitmaps leaving the cache. */
+    private final BitmapCache.OnBitmapRemovedListener cacheListener = new BitmapCache.OnBitmapRemovedListener() {
+        @Override
+        public void onBitmapRemoved(final int position, final Bitmap bitmap) {
+            metrics.onResidentBytesChanged(-BitmapCompat.getByteCount(bitmap));
+            sharedStore.release(bitmap);
+            bitmapPool.release(bitmap);
+        }
+    };
+
+    /** The metrics. */
+    private volatile CoverFlowMetrics metrics = CoverFlowMetrics.NONE;
+
+    /** Whether bitmaps are created in background. */
+    private volatile boolean asyncLoading;
+
+    /** The placeholder shown while bitmap is loaded in background. */
+    private volatile Bitmap placeholder;
+
+    /** Whether thumbnails are displayed instead of bitmaps not cached yet. */
+    private volatile boolean lowDetail;
+
+    /** Whether mipmaps are created along with full size bitmaps. */
+    private volatile boolean mipmapsEnabled;
+
+    /** The selected position, background loading starts from it. */
+    private volatile int selectedPosition = AdapterView.INVALID_POSITION;
 
-    /** The bitmap map. */
-    private final Map<Integer, WeakReference<Bitmap>> bitmapMap = new HashMap<Integer, WeakReference<Bitmap>>();
+    /** Lock serialising caching of created bitmaps with position updates. */
+    private final Object positionLock = new Object();
+
+    /** Incremented when items change positions, written under positionLock. */
+    private volatile int positionGeneration;
+
+    /** Adapter wrapping this one, whose bitmaps follow positions of this one. */
+    private volatile AbstractCoverFlowImageAdapter wrappingAdapter;
 
     public AbstractCoverFlowImageAdapter() {
         super();
+        bitmapCache.setOnBitmapRemovedListener(cacheListener);
+        thumbnailCache.setOnBitmapRemovedListener(cacheListener);
+        final BitmapCache[] caches = new BitmapCache[MIPMAP_LEVELS - 1];
+        long mipmapCacheSize = Runtime.getRuntime().maxMemory() / DEFAULT_MIPMAP_CACHE_HEAP_FRACTION;
+        for (int i = 0; i < caches.length; i++) {
+            caches[i] = new LruBitmapCache(mipmapCacheSize);
+            caches[i].setOnBitmapRemovedListener(cacheListener);
+            mipmapCacheSize /= 4;
+        }
+        mipmapCaches = caches;
+    }
+
+    /**
+     * Replaces the cache used to keep created bitmaps. Bitmaps kept in the
+     * previous cache are not transferred.
+     * 
+     * @param bitmapCache
+     *            the new bitmap cache
+     */
+    public void setBitmapCache(final BitmapCache bitmapCache) {
+        if (bitmapCache == null) {
+            throw new IllegalArgumentException("The bitmap cache should not be null");
+        }
+        this.bitmapCache.setOnBitmapRemovedListener(null);
+        this.bitmapCache = bitmapCache;
+        bitmapCache.setOnBitmapRemovedListener(cacheListener);
+    }
+
+    /**
+     * Gets the cache used to keep created bitmaps.
+     * 
+     * @return the bitmap cache
+     */
+    public BitmapCache getBitmapCache() {
+        return bitmapCache;
+    }
+
+    /**
+     * Replaces the cache used to keep created thumbnails. Thumbnails kept in
+     * the previous cache are not transferred.
+     * 
+     * @param thumbnailCache
+     *            the new thumbnail cache
+     */
+    public void setThumbnailCache(final BitmapCache thumbnailCache) {
+        if (thumbnailCache == null) {
+            throw new IllegalArgumentException("The thumbnail cache should not be null");
+        }
+        this.thumbnailCache.setOnBitmapRemovedListener(null);
+        this.thumbnailCache = thumbnailCache;
+        thumbnailCache.setOnBitmapRemovedListener(cacheListener);
+    }
+
+    /**
+     * Gets the cache used to keep created thumbnails.
+     * 
+     * @return the thumbnail cache
+     */
+    public BitmapCache getThumbnailCache() {
+        return thumbnailCache;
+    }
+
+    /**
+     * Replaces the cache used to keep created mipmaps of the level. Mipmaps
+     * kept in the previous cache are not transferred.
+     * 
+     * @param level
+     *            the mipmap level, 1 for half size
+     * @param mipmapCache
+     *            the new mipmap cache
+     */
+    public void setMipmapCache(final int level, final BitmapCache mipmapCache) {
+        if (level < 1 || level >= MIPMAP_LEVELS) {
+            throw new IllegalArgumentException("The mipmap level should be between 1 and " + (MIPMAP_LEVELS - 1));
+        }
+        if (mipmapCache == null) {
+            throw new IllegalArgumentException("The mipmap cache should not be null");
+        }
+        final BitmapCache[] caches = mipmapCaches.clone();
+        caches[level - 1].setOnBitmapRemovedListener(null);
+        caches[level - 1] = mipmapCache;
+        mipmapCaches = caches;
+        mipmapCache.setOnBitmapRemovedListener(cacheListener);
+    }
+
+    /**
+     * Gets the cache used to keep created mipmaps of the level.
+     * 
+     * @param level
+     *            the mipmap level, 1 for half size
+     * @return the mipmap cache
+     */
+    public BitmapCache getMipmapCache(final int level) {
+        if (level < 1 || level >= MIPMAP_LEVELS) {
+            throw new IllegalArgumentException("The mipmap level should be between 1 and " + (MIPMAP_LEVELS - 1));
+        }
+        return mipmapCaches[level - 1];
+    }
+
+    /**
+     * Sets the adapter wrapping this one and deriving its bitmaps from
+     * bitmaps of this one, so that its cached bitmaps are moved and its
+     * observers notified along with those of this adapter.
+     * 
+     * @param wrappingAdapter
+     *            the wrapping adapter, null for none
+     */
+    void setWrappingAdapter(final AbstractCoverFlowImageAdapter wrappingAdapter) {
+        this.wrappingAdapter = wrappingAdapter;
+    }
+
+    /**
+     * Gets the number of position updates, changing whenever positions of
+     * the items this adapter creates bitmaps from change.
+     * 
+     * @return the position generation
+     */
+    int getPositionGeneration() {
+        return positionGeneration;
+    }
+
+    /**
+     * Runs the update replacing item data and moves cached bitmaps to the new
+     * positions of their items, so that bitmaps still valid are not created
+     * again. The update runs under the same lock bitmaps are cached with, and
+     * bitmaps created from data older than the update are not cached. Should
+     * be called on UI thread, followed by {@link #notifyDataSetChanged()}.
+     * 
+     * @param newPositions
+     *            new position of the item at each old position, -1 if the
+     *            item was removed
+     * @param update
+     *            the update of item data
+     */
+    protected final void updatePositions(final int[] newPositions, final Runnable update) {
+        synchronized (positionLock) {
+            positionGeneration++;
+            update.run();
+            pendingItems.clear();
+            pendingThumbnails.clear();
+            bitmapCache.remap(newPositions);
+            thumbnailCache.remap(newPositions);
+            for (final BitmapCache mipmapCache : mipmapCaches) {
+                mipmapCache.remap(newPositions);
+            }
+        }
+        final AbstractCoverFlowImageAdapter wrapper = wrappingAdapter;
+        if (wrapper != null) {
+            wrapper.updatePositions(newPositions, NO_UPDATE);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see android.widget.BaseAdapter#notifyDataSetChanged()
+     */
+    @Override
+    public void notifyDataSetChanged() {
+        super.notifyDataSetChanged();
+        final AbstractCoverFlowImageAdapter wrapper = wrappingAdapter;
+        if (wrapper != null) {
+            wrapper.notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Replaces the pool of reusable bitmaps. Should be called before any
+     * bitmap is created. By default all adapters share
+     * {@link BitmapPool#getDefault()}.
+     * 
+     * @param bitmapPool
+     *            the new bitmap pool
+     */
+    public void setBitmapPool(final BitmapPool bitmapPool) {
+        if (bitmapPool == null) {
+            throw new IllegalArgumentException("The bitmap pool should not be null");
+        }
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     * Gets the pool of reusable bitmaps. Implementations creating bitmaps
+     * should take them from the pool when possible.
+     * 
+     * @return the bitmap pool
+     */
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * Replaces the store through which bitmaps with keys are shared with
+     * other adapters. Should be called before any bitmap is created. By
+     * default all adapters share {@link SharedBitmapStore#getDefault()}.
+     * 
+     * @param sharedStore
+     *            the new shared store
+     */
+    public void setSharedBitmapStore(final SharedBitmapStore sharedStore) {
+        if (sharedStore == null) {
+            throw new IllegalArgumentException("The shared bitmap store should not be null");
+        }
+        this.sharedStore = sharedStore;
+    }
+
+    /**
+     * Gets the shared bitmap store.
+     * 
+     * @return the shared store
+     */
+    public SharedBitmapStore getSharedBitmapStore() {
+        return sharedStore;
+    }
+
+    /**
+     * Informs the adapter about the position currently selected in the cover
+     * flow, so that bitmaps around it are kept in cache the longest and
+     * loaded first.
+     * 
+     * @param position
+     *            the selected position
+     */
+    public void setSelectedPosition(final int position) {
+        bitmapCache.setSelectedPosition(position);
+        thumbnailCache.setSelectedPosition(position);
+        for (final BitmapCache mipmapCache : mipmapCaches) {
+            mipmapCache.setSelectedPosition(position);
+        }
+        if (position != selectedPosition) {
+            selectedPosition = position;
+            AsyncBitmapLoader.getDefault().reprioritize();
+        }
+    }
+
+    /**
+     * Gets the selected position.
+     * 
+     * @return the selected position, {@link AdapterView#INVALID_POSITION} if
+     *         the cover flow has not reported any
+     */
+    int getSelectedPosition() {
+        return selectedPosition;
+    }
+
+    /**
+     * Releases cached bitmaps to reduce memory use. Each step releases the
+     * tiers of the steps below it and then its own: far positions of all
+     * caches, then thumbnails, mipmaps and pooled bitmaps, then all full size
+     * bitmaps but the visible ones, then everything. Bitmaps displayed by
+     * views stay in memory until the views release them.
+     * 
+     * @param trimStep
+     *            one of the {@link CacheTrimPolicy} steps
+     * @param firstVisible
+     *            first visible position
+     * @param lastVisible
+     *            last visible position
+     */
+    public void trimMemory(final int trimStep, final int firstVisible, final int lastVisible) {
+        if (trimStep >= CacheTrimPolicy.TRIM_ALL) {
+            bitmapCache.clear();
+            thumbnailCache.clear();
+            clearMipmaps();
+            bitmapPool.clear();
+            return;
+        }
+        if (trimStep >= CacheTrimPolicy.TRIM_FAR_POSITIONS) {
+            final int margin = lastVisible - firstVisible + 1;
+            bitmapCache.removeOutside(firstVisible - margin, lastVisible + margin);
+            thumbnailCache.removeOutside(firstVisible - margin, lastVisible + margin);
+            for (final BitmapCache mipmapCache : mipmapCaches) {
+                mipmapCache.removeOutside(firstVisible - margin, lastVisible + margin);
+            }
+        }
+        if (trimStep >= CacheTrimPolicy.TRIM_SECONDARY_TIERS) {
+            thumbnailCache.clear();
+            clearMipmaps();
+            bitmapPool.clear();
+        }
+        if (trimStep >= CacheTrimPolicy.TRIM_ALL_BUT_VISIBLE) {
+            bitmapCache.removeOutside(firstVisible, lastVisible);
+        }
+    }
+
+    /**
+     * Drops all cached mipmaps.
+     */
+    private void clearMipmaps() {
+        for (final BitmapCache mipmapCache : mipmapCaches) {
+            mipmapCache.clear();
+        }
+    }
+
+    /**
+     * Sets the metrics receiving cache and decoding measurements.
+     * 
+     * @param metrics
+     *            the metrics, {@link CoverFlowMetrics#NONE} to disable
+     */
+    public void setMetrics(final CoverFlowMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("The metrics should not be null");
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the metrics. Implementations should report decoding time to them.
+     * 
+     * @return the metrics
+     */
+    public CoverFlowMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Switches asynchronous loading. When enabled, getView returns
+     * immediately with the placeholder and bitmaps that are not cached yet
+     * are created on background threads, then bound to the view on UI
+     * thread. The createBitmap implementation must be thread safe then.
+     * 
+     * @param asyncLoading
+     *            whether bitmaps should be created in background
+     */
+    public void setAsyncLoading(final boolean asyncLoading) {
+        this.asyncLoading = asyncLoading;
+    }
+
+    /**
+     * Checks if is async loading.
+     * 
+     * @return true, if bitmaps are created in background
+     */
+    public boolean isAsyncLoading() {
+        return asyncLoading;
+    }
+
+    /**
+     * Sets the placeholder displayed until the bitmap is loaded in
+     * background.
+     * 
+     * @param placeholder
+     *            the placeholder, null for empty view
+     */
+    public void setPlaceholder(final Bitmap placeholder) {
+        this.placeholder = placeholder;
+    }
+
+    /**
+     * Gets the placeholder.
+     * 
+     * @return the placeholder
+     */
+    public Bitmap getPlaceholder() {
+        return placeholder;
+    }
+
+    /**
+     * Switches low detail mode, used by the cover flow while it moves fast.
+     * In low detail mode views of positions whose bitmaps are not cached get
+     * thumbnails, which are much cheaper to create, if the adapter supports
+     * them. Full size bitmaps are bound again when the views are requested
+     * after the mode is switched off.
+     * 
+     * @param lowDetail
+     *            whether thumbnails should be displayed
+     */
+    public void setLowDetail(final boolean lowDetail) {
+        this.lowDetail = lowDetail;
+    }
+
+    /**
+     * Checks if is low detail.
+     * 
+     * @return true, if thumbnails are displayed
+     */
+    public boolean isLowDetail() {
+        return lowDetail;
+    }
+
+    /**
+     * Switches creation of mipmaps - half and quarter size copies of each
+     * full size bitmap, which the cover flow displays for covers whose
+     * projected size is that small. Mipmaps are created along with full size
+     * bitmaps and cached separately. Disabling drops the cached mipmaps.
+     * 
+     * @param mipmapsEnabled
+     *            whether mipmaps should be created
+     */
+    public void setMipmapsEnabled(final boolean mipmapsEnabled) {
+        this.mipmapsEnabled = mipmapsEnabled;
+        if (!mipmapsEnabled) {
+            clearMipmaps();
+        }
+    }
+
+    /**
+     * Checks if is mipmaps enabled.
+     * 
+     * @return true, if mipmaps are created
+     */
+    public boolean isMipmapsEnabled() {
+        return mipmapsEnabled;
     }
 
     /**
@@ -41,7 +553,7 @@ public abstract class AbstractCoverFlowImageAdapter extends BaseAdapter {
      * @param width
      *            picture height
      */
-    public synchronized void setWidth(final float width) {
+    public void setWidth(final float width) {
         this.width = width;
     }
 
@@ -51,27 +563,350 @@ public abstract class AbstractCoverFlowImageAdapter extends BaseAdapter {
      * @param height
      *            picture height
      */
-    public synchronized void setHeight(final float height) {
+    public void setHeight(final float height) {
         this.height = height;
     }
 
+    /**
+     * Gets the width of all pictures.
+     * 
+     * @return the width
+     */
+    public float getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of all pictures.
+     * 
+     * @return the height
+     */
+    public float getHeight() {
+        return height;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see android.widget.Adapter#getItem(int)
+     */
     @Override
     public final Bitmap getItem(final int position) {
-        final WeakReference<Bitmap> weakBitmapReference = bitmapMap.get(position);
-        if (weakBitmapReference != null) {
-            final Bitmap bitmap = weakBitmapReference.get();
+        final Bitmap bitmap = getItemRetained(position);
+        bitmapPool.release(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Gets bitmap for the position, creating it if it is not cached, and
+     * retains it in the bitmap pool, so that it cannot be reused even if the
+     * cache evicts it. The bitmap must be released to the pool afterwards.
+     * 
+     * @param position
+     *            the position
+     * @return the retained bitmap
+     */
+    Bitmap getItemRetained(final int position) {
+        final Bitmap cachedBitmap = bitmapCache.getAndRetain(position, bitmapPool);
+        metrics.onCacheLookup(cachedBitmap != null);
+        if (cachedBitmap != null) {
+            return cachedBitmap;
+        }
+        return createItem(position);
+    }
+
+    /**
+     * Gets thumbnail for the position, creating it if it is not cached.
+     * 
+     * @param position
+     *            the position
+     * @return the thumbnail, or null if the adapter does not support them
+     */
+    Bitmap getThumbnail(final int position) {
+        final Bitmap thumbnail = getThumbnailRetained(position);
+        bitmapPool.release(thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Gets thumbnail for the position, creating it if it is not cached, and
+     * retains it like {@link #getItemRetained(int)} does.
+     * 
+     * @param position
+     *            the position
+     * @return the retained thumbnail, or null if the adapter does not support
+     *         them
+     */
+    Bitmap getThumbnailRetained(final int position) {
+        final Bitmap cachedThumbnail = thumbnailCache.getAndRetain(position, bitmapPool);
+        if (cachedThumbnail != null) {
+            return cachedThumbnail;
+        }
+        return createCached(position, true);
+    }
+
+    /**
+     * Starts loading bitmap for the position in background so that it is
+     * cached by the time it is displayed. Bitmaps are only prefetched when
+     * async loading is enabled, as only then createBitmap has to be thread
+     * safe.
+     * 
+     * @param position
+     *            the position
+     * @return the request, or null if async loading is disabled, the bitmap
+     *         is already cached or the position is out of range
+     */
+    AsyncBitmapLoader.LoadRequest prefetch(final int position) {
+        if (!asyncLoading || position < 0 || position >= getCount() || bitmapCache.contains(position)) {
+            return null;
+        }
+        return AsyncBitmapLoader.getDefault().load(this, position, null);
+    }
+
+    /**
+     * Creates bitmap for the position and stores it in cache. If another
+     * thread is already creating the bitmap, waits for it instead of creating
+     * a duplicate.
+     * 
+     * @param position
+     *            position
+     * @return Bitmap created, retained for the caller
+     */
+    private Bitmap createItem(final int position) {
+        return createCached(position, false);
+    }
+
+    /**
+     * Creates bitmap or thumbnail for the position and stores it in the
+     * cache of its kind. If another thread is already creating it, waits for
+     * it instead of creating a duplicate. The bitmap returned is retained for
+     * the caller, which must release it to the pool.
+     * 
+     * @param position
+     *            position
+     * @param thumbnail
+     *            whether thumbnail should be created
+     * @return Bitmap created, null if thumbnails are not supported
+     */
+    private Bitmap createCached(final int position, final boolean thumbnail) {
+        final ConcurrentHashMap<Integer, PendingBitmap> pendingMap = thumbnail ? pendingThumbnails : pendingItems;
+        final PendingBitmap created = new PendingBitmap(position, thumbnail);
+        final PendingBitmap pending;
+        synchronized (positionLock) {
+            pending = pendingMap.putIfAbsent(position, created);
+            if (pending != null) {
+                pending.waiters++;
+            }
+        }
+        if (pending != null) {
+            return getResult(pending.task);
+        }
+        try {
+            created.task.run();
+        } finally {
+            pendingMap.remove(position, created);
+        }
+        return getResult(created.task);
+    }
+
+    /**
+     * Puts the bitmap in the cache, retaining it for the time it is cached.
+     * 
+     * @param cache
+     *            the cache
+     * @param position
+     *            position
+     * @param bitmap
+     *            the bitmap
+     */
+    private void putCached(final BitmapCache cache, final int position, final Bitmap bitmap) {
+        bitmapPool.retain(bitmap);
+        metrics.onResidentBytesChanged(BitmapCompat.getByteCount(bitmap));
+        cache.put(position, bitmap);
+    }
+
+    /**
+     * Creates mipmaps of the full size bitmap, each half the size of the
+     * previous level.
+     * 
+     * @param bitmap
+     *            the full size bitmap
+     * @return the mipmaps, index is the level minus one
+     */
+    private Bitmap[] createMipmaps(final Bitmap bitmap) {
+        final MipmapScaler scaler = mipmapScalers.get();
+        final Bitmap[] mipmaps = new Bitmap[MIPMAP_LEVELS - 1];
+        Bitmap source = bitmap;
+        for (int i = 0; i < mipmaps.length; i++) {
+            mipmaps[i] = scaler.halve(source, bitmapPool);
+            source = mipmaps[i];
+        }
+        return mipmaps;
+    }
+
+    /**
+     * Gets bitmap or thumbnail for the position from the shared store, so
+     * that adapters showing the same content share it, or creates it if it
+     * has no key.
+     * 
+     * @param position
+     *            position
+     * @param thumbnail
+     *            whether thumbnail should be created
+     * @return Bitmap obtained, null if thumbnails are not supported
+     */
+    private Bitmap obtainBitmap(final int position, final boolean thumbnail) {
+        while (true) {
+            final String key = getBitmapKey(position);
+            if (key == null) {
+                return thumbnail ? createThumbnail(position) : createBitmap(position);
+            }
+            try {
+                return sharedStore.obtain(thumbnail ? "thumbnail:" + key : key, bitmapPool,
+                        new SharedBitmapStore.Factory() {
+                            @Override
+                            public Bitmap create() {
+                                final Bitmap bitmap = thumbnail ? createThumbnail(position)
+                                        : createBitmap(position);
+                                // other adapters would get the bitmap of
+                                // another item under the key
+                                if (!key.equals(getBitmapKey(position))) {
+                                    throw new ItemChangedException();
+                                }
+                                return bitmap;
+                            }
+                        });
+            } catch (final ItemChangedException e) {
+                // try again with the key of the item now at the position
+            }
+        }
+    }
+
+    /**
+     * Bitmap or thumbnail being created for a position. Threads asking for it
+     * meanwhile wait for it instead of creating a duplicate, and it is
+     * retained for each of them before it is cached, as the cache may evict
+     * it as soon as it is there.
+     */
+    private final class PendingBitmap implements Callable<Bitmap> {
+
+        /** The task creating the bitmap. */
+        private final FutureTask<Bitmap> task = new FutureTask<Bitmap>(this);
+
+        /** The position. */
+        private final int position;
+
+        /** Whether thumbnail is created. */
+        private final boolean thumbnail;
+
+        /** Number of threads waiting for the bitmap, guarded by positionLock. */
+        private int waiters;
+
+        /**
+         * Instantiates a new pending bitmap.
+         * 
+         * @param position
+         *            the position
+         * @param thumbnail
+         *            whether thumbnail should be created
+         */
+        PendingBitmap(final int position, final boolean thumbnail) {
+            this.position = position;
+            this.thumbnail = thumbnail;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see java.util.concurrent.Callable#call()
+         */
+        @Override
+        public Bitmap call() {
+            final int generation = getPositionGeneration();
+            final Bitmap bitmap = obtainBitmap(position, thumbnail);
             if (bitmap == null) {
-                Log.v(TAG, "Empty bitmap reference at position: " + position + ":" + this);
-            } else {
-                Log.v(TAG, "Reusing bitmap item at position: " + position + ":" + this);
-                return bitmap;
+                return null;
             }
+            final Bitmap[] mipmaps = thumbnail || !mipmapsEnabled ? null : createMipmaps(bitmap);
+            synchronized (positionLock) {
+                // threads coming from now on find the bitmap in the cache
+                (thumbnail ? pendingThumbnails : pendingItems).remove(position, this);
+                for (int i = 0; i <= waiters; i++) {
+                    bitmapPool.retain(bitmap);
+                }
+                // a bitmap created before positions changed may belong
+                // to another item now, so it is only displayed
+                if (generation == getPositionGeneration()) {
+                    putCached(thumbnail ? thumbnailCache : bitmapCache, position, bitmap);
+                    final BitmapCache[] caches = mipmapCaches;
+                    for (int i = 0; mipmaps != null && i < mipmaps.length; i++) {
+                        putCached(caches[i], position, mipmaps[i]);
+                    }
+                } else {
+                    sharedStore.release(bitmap);
+                    for (int i = 0; mipmaps != null && i < mipmaps.length; i++) {
+                        bitmapPool.put(mipmaps[i]);
+                    }
+                }
+            }
+            return bitmap;
         }
-        Log.v(TAG, "Creating item at position: " + position + ":" + this);
-        final Bitmap bitmap = createBitmap(position);
-        bitmapMap.put(position, new WeakReference<Bitmap>(bitmap));
-        Log.v(TAG, "Created item at position: " + position + ":" + this);
-        return bitmap;
+    }
+
+    /**
+     * Thrown when the item at a position changed while its bitmap was
+     * created.
+     */
+    private static final class ItemChangedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Gets result of the task, rethrowing its failures unchecked and waiting
+     * uninterruptibly.
+     * 
+     * @param task
+     *            the task
+     * @return the result
+     */
+    static <V> V getResult(final FutureTask<V> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Gets the key identifying content of the bitmap created for the
+     * position, which stays the same across application runs. Adapters
+     * returning a key allow bitmaps derived from theirs to be cached on disk.
+     * 
+     * @param position
+     *            position
+     * @return the key, or null if bitmaps have no persistent identity
+     */
+    protected String getBitmapKey(final int position) {
+        return null;
     }
 
     /**
@@ -83,13 +918,26 @@ public abstract class AbstractCoverFlowImageAdapter extends BaseAdapter {
      */
     protected abstract Bitmap createBitmap(int position);
 
+    /**
+     * Creates heavily downsampled thumbnail for the position, displayed in
+     * low detail mode. Returns null by default, so that full size bitmaps are
+     * always displayed.
+     * 
+     * @param position
+     *            position
+     * @return Thumbnail created, null if not supported
+     */
+    protected Bitmap createThumbnail(final int position) {
+        return null;
+    }
+
     /*
      * (non-Javadoc)
      * 
      * @see android.widget.Adapter#getItemId(int)
      */
     @Override
-    public final synchronized long getItemId(final int position) {
+    public final long getItemId(final int position) {
         return position;
     }
 
@@ -100,19 +948,251 @@ public abstract class AbstractCoverFlowImageAdapter extends BaseAdapter {
      * android.view.ViewGroup)
      */
     @Override
-    public final synchronized ImageView getView(final int position, final View convertView, final ViewGroup parent) {
+    public final ImageView getView(final int position, final View convertView, final ViewGroup parent) {
         ImageView imageView;
         if (convertView == null) {
             final Context context = parent.getContext();
-            Log.v(TAG, "Creating Image view at position: " + position + ":" + this);
             imageView = new ImageView(context);
             imageView.setLayoutParams(new CoverFlow.LayoutParams((int) width, (int) height));
         } else {
-            Log.v(TAG, "Reusing view at position: " + position + ":" + this);
             imageView = (ImageView) convertView;
         }
-        imageView.setImageBitmap(getItem(position));
+        // bitmaps are retained until bound, as a loader thread may evict
+        // them from the cache and reuse them in the meantime
+        final Bitmap cachedBitmap = bitmapCache.getAndRetain(position, bitmapPool);
+        metrics.onCacheLookup(cachedBitmap != null);
+        final Bitmap cachedThumbnail = cachedBitmap == null && lowDetail ? thumbnailCache.getAndRetain(position,
+                bitmapPool) : null;
+        try {
+            if (cachedBitmap != null) {
+                cancelLoading(imageView);
+                bindBitmap(imageView, cachedBitmap);
+            } else if (cachedThumbnail != null) {
+                cancelLoading(imageView);
+                bindThumbnail(imageView, cachedThumbnail, position);
+            } else if (asyncLoading) {
+                loadInBackground(imageView, position, lowDetail);
+            } else {
+                cancelLoading(imageView);
+                bindCreated(imageView, position);
+            }
+        } finally {
+            bitmapPool.release(cachedBitmap);
+            bitmapPool.release(cachedThumbnail);
+        }
         return imageView;
     }
 
+    /**
+     * Creates the bitmap for the position on the calling thread and displays
+     * it in the image view, retaining it until it is bound.
+     * 
+     * @param imageView
+     *            the image view
+     * @param position
+     *            the position
+     */
+    private void bindCreated(final ImageView imageView, final int position) {
+        final Bitmap thumbnail = lowDetail ? createCached(position, true) : null;
+        final Bitmap bitmap = thumbnail == null ? createItem(position) : null;
+        try {
+            if (thumbnail == null) {
+                bindBitmap(imageView, bitmap);
+            } else {
+                bindThumbnail(imageView, thumbnail, position);
+            }
+        } finally {
+            bitmapPool.release(thumbnail);
+            bitmapPool.release(bitmap);
+        }
+    }
+
+    /**
+     * Displays the bitmap in the image view. The bitmap previously displayed
+     * is released, so it can go to the pool when it is no longer cached.
+     * Must be called on UI thread.
+     * 
+     * @param imageView
+     *            the image view
+     * @param bitmap
+     *            the bitmap, may be the placeholder or null
+     */
+    void bindBitmap(final ImageView imageView, final Bitmap bitmap) {
+        bind(imageView, bitmap, null);
+    }
+
+    /**
+     * Displays the bitmap in the image view, through the drawable if one is
+     * given, releasing the bitmap previously displayed.
+     * 
+     * @param imageView
+     *            the image view
+     * @param bitmap
+     *            the bitmap, may be the placeholder or null
+     * @param drawable
+     *            drawable of the bitmap, null to display the bitmap as it is
+     */
+    private void bind(final ImageView imageView, final Bitmap bitmap, final Drawable drawable) {
+        thumbnailPositions.remove(imageView);
+        mipmapPositions.remove(imageView);
+        final Bitmap previous = boundBitmaps.get(imageView);
+        if (previous != bitmap) {
+            if (bitmap == null || bitmap == placeholder) {
+                boundBitmaps.remove(imageView);
+            } else {
+                bitmapPool.retain(bitmap);
+                boundBitmaps.put(imageView, bitmap);
+            }
+        }
+        if (drawable == null) {
+            imageView.setImageBitmap(bitmap);
+        } else {
+            imageView.setImageDrawable(drawable);
+        }
+        if (previous != null && previous != bitmap) {
+            bitmapPool.release(previous);
+        }
+    }
+
+    /**
+     * Displays the thumbnail in the image view, remembering its position so
+     * that it is not replaced with placeholder while the full size bitmap is
+     * loaded. Must be called on UI thread.
+     * 
+     * @param imageView
+     *            the image view
+     * @param thumbnail
+     *            the thumbnail
+     * @param position
+     *            the position of the thumbnail
+     */
+    void bindThumbnail(final ImageView imageView, final Bitmap thumbnail, final int position) {
+        bindBitmap(imageView, thumbnail);
+        thumbnailPositions.put(imageView, position);
+    }
+
+    /**
+     * Checks if the image view displays a bitmap of this adapter, at any
+     * resolution, rather than the placeholder. Must be called on UI thread.
+     * 
+     * @param imageView
+     *            the image view
+     * @return true, if the view displays a bitmap or thumbnail
+     */
+    boolean isBound(final ImageView imageView) {
+        return boundBitmaps.containsKey(imageView);
+    }
+
+    /**
+     * Checks if the image view displays a full size bitmap or its mipmap.
+     * Must be called on UI thread.
+     * 
+     * @param imageView
+     *            the image view
+     * @return true, if the view displays neither the placeholder nor a
+     *         thumbnail
+     */
+    boolean isFullyBound(final ImageView imageView) {
+        return boundBitmaps.containsKey(imageView) && !thumbnailPositions.containsKey(imageView);
+    }
+
+    /**
+     * Displays the mipmap of the level in the image view, if the view
+     * displays the full size bitmap of the position or one of its mipmaps.
+     * Views displaying placeholders or thumbnails are left as they are, as
+     * are views whose mipmap of the level is not cached. A view displaying a
+     * mipmap whose full size bitmap was evicted gets it loaded again. Must be
+     * called on UI thread.
+     * 
+     * @param imageView
+     *            the image view
+     * @param position
+     *            the position displayed by the view
+     * @param level
+     *            the mipmap level, 0 for the full size bitmap
+     */
+    void bindMipmap(final ImageView imageView, final int position, final int level) {
+        final Integer mipmapPosition = mipmapPositions.get(imageView);
+        final int currentLevel;
+        if (mipmapPosition == null) {
+            currentLevel = 0;
+        } else if (mipmapPosition.intValue() == position) {
+            currentLevel = ((MipmapDrawable) imageView.getDrawable()).getMipmapLevel();
+        } else {
+            return;
+        }
+        if (currentLevel == level) {
+            return;
+        }
+        final Bitmap mipmap = level == 0 ? null : mipmapCaches[level - 1].getAndRetain(position, bitmapPool);
+        if (mipmap == null && currentLevel == 0) {
+            return;
+        }
+        final Bitmap bitmap = bitmapCache.getAndRetain(position, bitmapPool);
+        try {
+            if (bitmap == null && currentLevel != 0 && level == 0) {
+                // the full size bitmap was evicted while the mipmap was
+                // displayed
+                getView(position, imageView, null);
+                return;
+            }
+            if (bitmap == null || currentLevel == 0 && boundBitmaps.get(imageView) != bitmap) {
+                return;
+            }
+            if (mipmap == null) {
+                bindBitmap(imageView, bitmap);
+            } else {
+                bind(imageView, mipmap, new MipmapDrawable(imageView.getResources(), mipmap, level, bitmap));
+                mipmapPositions.put(imageView, position);
+            }
+        } finally {
+            bitmapPool.release(mipmap);
+            bitmapPool.release(bitmap);
+        }
+    }
+
+    /**
+     * Starts loading bitmap for the position in background, unless it is
+     * already being loaded for the image view. Loading of a bitmap for another
+     * position the view was used for is cancelled, as is loading of a
+     * thumbnail when full size bitmap is requested.
+     * 
+     * @param imageView
+     *            the image view
+     * @param position
+     *            the position
+     * @param thumbnail
+     *            whether thumbnail should be loaded if supported
+     */
+    private void loadInBackground(final ImageView imageView, final int position, final boolean thumbnail) {
+        final AsyncBitmapLoader.LoadRequest request = AsyncBitmapLoader.getRequest(imageView);
+        if (request != null) {
+            if (request.getPosition() == position && !request.isCancelled()
+                    && (thumbnail || !request.isThumbnail())) {
+                return;
+            }
+            request.cancel();
+        }
+        final Integer thumbnailPosition = thumbnailPositions.get(imageView);
+        if (thumbnailPosition == null || thumbnailPosition.intValue() != position) {
+            bindBitmap(imageView, placeholder);
+        }
+        AsyncBitmapLoader.setRequest(imageView, AsyncBitmapLoader.getDefault().load(this, position, imageView,
+                thumbnail));
+    }
+
+    /**
+     * Cancels background loading for the image view, if any.
+     * 
+     * @param imageView
+     *            the image view
+     */
+    private static void cancelLoading(final ImageView imageView) {
+        final AsyncBitmapLoader.LoadRequest request = AsyncBitmapLoader.getRequest(imageView);
+        if (request != null) {
+            request.cancel();
+            AsyncBitmapLoader.setRequest(imageView, null);
+        }
+    }
+
 }
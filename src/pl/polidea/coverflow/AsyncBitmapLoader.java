@@ -0,0 +1,417 @@
+package pl.polidea.coverflow;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.widget.ImageView;
+
+/**
+ * Loads adapter bitmaps on a pool of background threads, one per core, and
+ * binds them to image views on the UI thread. Pending requests are ordered by
+ * distance from the position selected in their adapter, so the centre cover
+ * is loaded first and the barely visible edge covers last. When the selection
+ * changes the queue is reordered and requests too far from the new selection
+ * are dropped; when the queue is full the farthest request is dropped.
+ *
+ */
+final class AsyncBitmapLoader {
+
+    /** The Constant TAG. */
+    private static final String TAG = AsyncBitmapLoader.class.getSimpleName();
+
+    /** The Constant QUEUE_CAPACITY. */
+    private static final int QUEUE_CAPACITY = 32;
+
+    /**
+     * Distance from the selected position beyond which pending requests are
+     * dropped when the selection changes.
+     */
+    private static final int MAX_DISTANCE = 24;
+
+    /** The default loader shared by all adapters. */
+    private static AsyncBitmapLoader defaultLoader;
+
+    /** The executor. */
+    private final ThreadPoolExecutor executor;
+
+    /** The pending requests, nearest to the selection first. */
+    private final PriorityBlockingQueue<Runnable> queue;
+
+    /** The queue capacity. */
+    private final int queueCapacity;
+
+    /** Sequence number of the next request, keeping equally near ones in order. */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /** Handler of the UI thread. */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Gets the loader shared by all adapters.
+     *
+     * @return the default loader
+     */
+    static synchronized AsyncBitmapLoader getDefault() {
+        if (defaultLoader == null) {
+            defaultLoader = new AsyncBitmapLoader(Math.max(1, Runtime.getRuntime().availableProcessors()),
+                    QUEUE_CAPACITY);
+        }
+        return defaultLoader;
+    }
+
+    /**
+     * Creates loader.
+     *
+     * @param workerCount
+     *            number of background threads
+     * @param queueCapacity
+     *            maximum number of pending requests
+     */
+    AsyncBitmapLoader(final int workerCount, final int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        queue = new PriorityBlockingQueue<Runnable>(queueCapacity + 1, new DistanceComparator());
+        executor = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS, queue,
+                new WorkerThreadFactory());
+        // all requests go through the queue, so that the nearest one is
+        // always taken first
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Loads bitmap for the position and binds it to the image view when
+     * ready.
+     *
+     * @param adapter
+     *            adapter providing the bitmap
+     * @param position
+     *            position of the item
+     * @param target
+     *            image view to bind the bitmap to, null if the bitmap should
+     *            only be cached
+     * @return the request, which can be cancelled
+     */
+    LoadRequest load(final AbstractCoverFlowImageAdapter adapter, final int position, final ImageView target) {
+        return load(adapter, position, target, false);
+    }
+
+    /**
+     * Loads bitmap or thumbnail for the position and binds it to the image
+     * view when ready.
+     *
+     * @param adapter
+     *            adapter providing the bitmap
+     * @param position
+     *            position of the item
+     * @param target
+     *            image view to bind the bitmap to, null if the bitmap should
+     *            only be cached
+     * @param thumbnail
+     *            whether thumbnail should be loaded, falling back to the full
+     *            size bitmap if the adapter does not support them
+     * @return the request, which can be cancelled
+     */
+    LoadRequest load(final AbstractCoverFlowImageAdapter adapter, final int position, final ImageView target,
+            final boolean thumbnail) {
+        final LoadRequest request = new LoadRequest(adapter, position, target, thumbnail,
+                sequence.getAndIncrement());
+        request.updateDistance();
+        executor.execute(request);
+        if (queue.size() > queueCapacity) {
+            dropFarthest();
+        }
+        return request;
+    }
+
+    /**
+     * Gets the request loading bitmap for the image view. Requests are kept
+     * under a library tag key, so that the plain tag is left to the
+     * application.
+     *
+     * @param imageView
+     *            the image view
+     * @return the request, null if none
+     */
+    static LoadRequest getRequest(final ImageView imageView) {
+        final Object tag = imageView.getTag(R.id.coverflow_load_request);
+        return tag instanceof LoadRequest ? (LoadRequest) tag : null;
+    }
+
+    /**
+     * Sets the request loading bitmap for the image view.
+     *
+     * @param imageView
+     *            the image view
+     * @param request
+     *            the request, null for none
+     */
+    static void setRequest(final ImageView imageView, final LoadRequest request) {
+        imageView.setTag(R.id.coverflow_load_request, request);
+    }
+
+    /**
+     * Reorders pending requests after the selected position of an adapter
+     * has changed. Cancelled requests are dropped, as well as droppable ones
+     * too far from the selection. Must be called on UI thread.
+     *
+     * The whole queue is drained and offered again on every selection
+     * change, which is cheap as long as it holds a few dozen requests at
+     * most, i.e. the queue capacity plus the requests of visible views.
+     */
+    void reprioritize() {
+        final List<Runnable> requests = new ArrayList<Runnable>(queue.size());
+        queue.drainTo(requests);
+        for (final Runnable runnable : requests) {
+            final LoadRequest request = (LoadRequest) runnable;
+            if (!request.isCancelled() && (request.updateDistance() <= MAX_DISTANCE || !request.isDroppable())) {
+                queue.offer(request);
+            } else {
+                request.cancel();
+            }
+        }
+    }
+
+    /**
+     * Drops the droppable pending request farthest from the selection.
+     * Requests of views still displayed are kept, so the queue may stay over
+     * its capacity by the number of visible views. Must be called on UI
+     * thread.
+     */
+    private void dropFarthest() {
+        final DistanceComparator comparator = new DistanceComparator();
+        LoadRequest farthest = null;
+        final Iterator<Runnable> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            final LoadRequest request = (LoadRequest) iterator.next();
+            if (request.isDroppable() && (farthest == null || comparator.compare(request, farthest) > 0)) {
+                farthest = request;
+            }
+        }
+        if (farthest != null && queue.remove(farthest)) {
+            farthest.cancel();
+        }
+    }
+
+    /**
+     * Request for a bitmap of single position.
+     */
+    final class LoadRequest implements Runnable {
+
+        /** The adapter. */
+        private final AbstractCoverFlowImageAdapter adapter;
+
+        /** The position. */
+        private final int position;
+
+        /** The target. */
+        private final ImageView target;
+
+        /** Whether thumbnail is requested. */
+        private final boolean thumbnail;
+
+        /** The sequence number. */
+        private final long sequenceNumber;
+
+        /**
+         * Distance from the selected position when the request was queued,
+         * changed only while the request is out of the queue.
+         */
+        private int distance;
+
+        /** The cancelled. */
+        private volatile boolean cancelled;
+
+        /** The done. */
+        private volatile boolean done;
+
+        /**
+         * Creates the request.
+         *
+         * @param adapter
+         *            the adapter
+         * @param position
+         *            the position
+         * @param target
+         *            the target
+         * @param thumbnail
+         *            whether thumbnail is requested
+         * @param sequenceNumber
+         *            the sequence number
+         */
+        LoadRequest(final AbstractCoverFlowImageAdapter adapter, final int position, final ImageView target,
+                final boolean thumbnail, final long sequenceNumber) {
+            this.adapter = adapter;
+            this.position = position;
+            this.target = target;
+            this.thumbnail = thumbnail;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        /**
+         * Updates the distance from the position currently selected in the
+         * adapter.
+         *
+         * @return the distance, 0 if no position is selected
+         */
+        int updateDistance() {
+            final int selectedPosition = adapter.getSelectedPosition();
+            distance = selectedPosition < 0 ? 0 : Math.abs(position - selectedPosition);
+            return distance;
+        }
+
+        /**
+         * Gets the position.
+         *
+         * @return the position
+         */
+        int getPosition() {
+            return position;
+        }
+
+        /**
+         * Checks if is thumbnail.
+         *
+         * @return true, if thumbnail is requested
+         */
+        boolean isThumbnail() {
+            return thumbnail;
+        }
+
+        /**
+         * Cancels the request. Bitmap already being created is still cached,
+         * but it is not bound to the image view.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Checks if is cancelled.
+         *
+         * @return true, if is cancelled
+         */
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Checks if the request can be dropped without leaving a placeholder
+         * on screen: it only prefetches, its view is detached - e.g. waits in
+         * the recycler - or its view was given another request since. Must be
+         * called on UI thread.
+         *
+         * @return true, if is droppable
+         */
+        boolean isDroppable() {
+            return target == null || target.getParent() == null || getRequest(target) != this;
+        }
+
+        /**
+         * Checks if the bitmap is already loaded.
+         *
+         * @return true, if is done
+         */
+        boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            final BitmapPool pool = adapter.getBitmapPool();
+            final Bitmap thumbnailBitmap;
+            final Bitmap bitmap;
+            try {
+                // the cache may evict the bitmap and another decode may
+                // reuse it before it is bound, so it is held until then
+                thumbnailBitmap = thumbnail ? adapter.getThumbnailRetained(position) : null;
+                bitmap = thumbnailBitmap == null ? adapter.getItemRetained(position) : thumbnailBitmap;
+            } catch (final RuntimeException e) {
+                Log.w(TAG, "Could not load bitmap at position: " + position, e);
+                return;
+            } catch (final OutOfMemoryError e) {
+                Log.w(TAG, "Out of memory when loading bitmap at position: " + position, e);
+                return;
+            } finally {
+                done = true;
+            }
+            if (target == null) {
+                pool.release(bitmap);
+                return;
+            }
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!cancelled && getRequest(target) == LoadRequest.this) {
+                            setRequest(target, null);
+                            if (thumbnailBitmap == null) {
+                                adapter.bindBitmap(target, bitmap);
+                            } else {
+                                adapter.bindThumbnail(target, thumbnailBitmap, position);
+                            }
+                        }
+                    } finally {
+                        pool.release(bitmap);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Orders requests by distance from the selection, then by the time they
+     * were made.
+     */
+    private static final class DistanceComparator implements Comparator<Runnable> {
+
+        @Override
+        public int compare(final Runnable lhs, final Runnable rhs) {
+            final LoadRequest left = (LoadRequest) lhs;
+            final LoadRequest right = (LoadRequest) rhs;
+            if (left.distance != right.distance) {
+                return left.distance < right.distance ? -1 : 1;
+            }
+            if (left.sequenceNumber != right.sequenceNumber) {
+                return left.sequenceNumber < right.sequenceNumber ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Creates low priority worker threads.
+     */
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        /** The thread count. */
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "CoverFlowLoader #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
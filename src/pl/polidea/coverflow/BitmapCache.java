@@ -0,0 +1,162 @@
+package pl.polidea.coverflow;
+
+import android.graphics.Bitmap;
+
+/**
+ * Cache of bitmaps created by {@link AbstractCoverFlowImageAdapter}. Bitmaps
+ * are stored under the position of the item they were created for.
+ * Implementations are expected to keep their size within a budget expressed
+ * in bytes and to count hits, misses and evictions so that the budget can be
+ * tuned per device.
+ *
+ */
+public interface BitmapCache {
+
+    /**
+     * Listener notified when bitmap leaves the cache.
+     */
+    interface OnBitmapRemovedListener {
+
+        /**
+         * Called when bitmap is evicted, removed or replaced.
+         *
+         * @param position
+         *            position of the item
+         * @param bitmap
+         *            the bitmap removed
+         */
+        void onBitmapRemoved(int position, Bitmap bitmap);
+    }
+
+    /**
+     * Gets bitmap stored for the position.
+     *
+     * @param position
+     *            position of the item
+     * @return the bitmap or null if it is not cached
+     */
+    Bitmap get(int position);
+
+    /**
+     * Gets bitmap stored for the position and retains it in the pool in one
+     * step, so that it cannot be evicted and reused between the lookup and
+     * the retain. The bitmap must be released to the pool afterwards.
+     *
+     * @param position
+     *            position of the item
+     * @param bitmapPool
+     *            pool to retain the bitmap in
+     * @return the retained bitmap or null if it is not cached
+     */
+    Bitmap getAndRetain(int position, BitmapPool bitmapPool);
+
+    /**
+     * Checks whether bitmap for the position is cached, without counting it
+     * as a hit or a miss.
+     *
+     * @param position
+     *            position of the item
+     * @return true, if the bitmap is cached
+     */
+    boolean contains(int position);
+
+    /**
+     * Stores bitmap for the position. May evict other bitmaps. The bitmap
+     * previously stored for the position is reported as removed, even if it
+     * is the same bitmap, so that every bitmap put is reported once.
+     *
+     * @param position
+     *            position of the item
+     * @param bitmap
+     *            bitmap to store
+     */
+    void put(int position, Bitmap bitmap);
+
+    /**
+     * Removes bitmap stored for the position.
+     *
+     * @param position
+     *            position of the item
+     */
+    void remove(int position);
+
+    /**
+     * Removes all bitmaps.
+     */
+    void clear();
+
+    /**
+     * Removes bitmaps of positions outside the range, e.g. to release memory
+     * while keeping what is displayed.
+     *
+     * @param first
+     *            first position kept
+     * @param last
+     *            last position kept
+     */
+    void removeOutside(int first, int last);
+
+    /**
+     * Moves bitmaps to new positions of their items after items were
+     * inserted, removed or moved. Bitmaps of removed items and bitmaps
+     * overwritten by moved ones are reported as removed. Bitmaps must not be
+     * put concurrently.
+     *
+     * @param newPositions
+     *            new position of the item at each old position, -1 if the
+     *            item was removed
+     */
+    void remap(int[] newPositions);
+
+    /**
+     * Sets the listener notified when bitmap leaves the cache.
+     *
+     * @param listener
+     *            the listener, null for none
+     */
+    void setOnBitmapRemovedListener(OnBitmapRemovedListener listener);
+
+    /**
+     * Informs the cache about currently selected position, so that bitmaps
+     * close to it are evicted last.
+     *
+     * @param position
+     *            selected position
+     */
+    void setSelectedPosition(int position);
+
+    /**
+     * Gets the number of bytes held by the cache.
+     *
+     * @return size in bytes
+     */
+    long getSize();
+
+    /**
+     * Gets the budget of the cache.
+     *
+     * @return maximum size in bytes
+     */
+    long getMaxSize();
+
+    /**
+     * Gets the number of successful lookups.
+     *
+     * @return hit count
+     */
+    long getHitCount();
+
+    /**
+     * Gets the number of unsuccessful lookups.
+     *
+     * @return miss count
+     */
+    long getMissCount();
+
+    /**
+     * Gets the number of bitmaps evicted to stay within the budget.
+     *
+     * @return eviction count
+     */
+    long getEvictionCount();
+}
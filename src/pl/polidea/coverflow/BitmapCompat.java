@@ -0,0 +1,33 @@
+package pl.polidea.coverflow;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * Helpers for bitmap methods that are not available on all supported platform
+ * versions.
+ *
+ */
+final class BitmapCompat {
+
+    /** First API level with Bitmap.getByteCount(). */
+    private static final int HONEYCOMB_MR1 = 12;
+
+    private BitmapCompat() {
+        // utility class
+    }
+
+    /**
+     * Gets the number of bytes used to store pixels of the bitmap.
+     *
+     * @param bitmap
+     *            the bitmap
+     * @return size in bytes
+     */
+    static int getByteCount(final Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= HONEYCOMB_MR1) {
+            return bitmap.getByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
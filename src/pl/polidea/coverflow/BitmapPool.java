@@ -0,0 +1,254 @@
+package pl.polidea.coverflow;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+/**
+ * Pool of mutable bitmaps that are no longer used, so that new covers can be
+ * drawn or decoded into them instead of allocating. Covers in a cover flow
+ * all have the same size, so the pool is keyed by exact size and config.
+ *
+ * Bitmaps get into the pool only when released by all their users: caches
+ * and image views retain bitmaps they hold and release them when they let
+ * go. A bitmap that was never retained is never pooled.
+ *
+ */
+public class BitmapPool {
+
+    /** The default size of the pool - fraction of the heap available. */
+    private static final int DEFAULT_POOL_HEAP_FRACTION = 16;
+
+    /** The pool shared by adapters by default. */
+    private static BitmapPool defaultPool;
+
+    /** Pooled bitmaps by size and config. */
+    private final Map<Long, List<Bitmap>> pooled = new HashMap<Long, List<Bitmap>>();
+
+    /** Pooled bitmaps, oldest first. */
+    private final LinkedList<Bitmap> order = new LinkedList<Bitmap>();
+
+    /** Reference counts of bitmaps in use. */
+    private final WeakHashMap<Bitmap, Integer> references = new WeakHashMap<Bitmap, Integer>();
+
+    /** The max size. */
+    private final long maxSize;
+
+    /** The size. */
+    private long size;
+
+    /** The reuse count. */
+    private long reuseCount;
+
+    /** The miss count. */
+    private long missCount;
+
+    /** The drop count. */
+    private long dropCount;
+
+    /**
+     * Gets the pool shared by all adapters by default.
+     *
+     * @return the default pool
+     */
+    public static synchronized BitmapPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new BitmapPool(Runtime.getRuntime().maxMemory() / DEFAULT_POOL_HEAP_FRACTION);
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Creates the pool.
+     *
+     * @param maxSize
+     *            maximum size of pooled bitmaps in bytes
+     */
+    public BitmapPool(final long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Takes bitmap of the size and config from the pool. Its content is
+     * undefined.
+     *
+     * @param width
+     *            the width
+     * @param height
+     *            the height
+     * @param config
+     *            the config
+     * @return the bitmap or null if there is no such bitmap in the pool
+     */
+    public synchronized Bitmap get(final int width, final int height, final Config config) {
+        final List<Bitmap> bitmaps = pooled.get(getKey(width, height, config));
+        if (bitmaps == null || bitmaps.isEmpty()) {
+            missCount++;
+            return null;
+        }
+        final Bitmap bitmap = bitmaps.remove(bitmaps.size() - 1);
+        order.remove(bitmap);
+        size -= BitmapCompat.getByteCount(bitmap);
+        reuseCount++;
+        return bitmap;
+    }
+
+    /**
+     * Puts bitmap that nothing refers to into the pool. Immutable and
+     * recycled bitmaps are dropped, as well as the oldest pooled bitmaps when
+     * the pool gets too large.
+     *
+     * @param bitmap
+     *            the bitmap
+     */
+    public synchronized void put(final Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null
+                || references.containsKey(bitmap)) {
+            dropCount++;
+            return;
+        }
+        final int byteCount = BitmapCompat.getByteCount(bitmap);
+        if (byteCount > maxSize) {
+            dropCount++;
+            return;
+        }
+        final Long key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        List<Bitmap> bitmaps = pooled.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayList<Bitmap>();
+            pooled.put(key, bitmaps);
+        } else if (bitmaps.contains(bitmap)) {
+            return;
+        }
+        bitmaps.add(bitmap);
+        order.addLast(bitmap);
+        size += byteCount;
+        while (size > maxSize) {
+            final Bitmap oldest = order.removeFirst();
+            pooled.get(getKey(oldest.getWidth(), oldest.getHeight(), oldest.getConfig())).remove(oldest);
+            size -= BitmapCompat.getByteCount(oldest);
+            dropCount++;
+        }
+    }
+
+    /**
+     * Marks the bitmap as used by one more holder. A bitmap released by
+     * another thread just before is taken back out of the pool.
+     *
+     * @param bitmap
+     *            the bitmap
+     */
+    public synchronized void retain(final Bitmap bitmap) {
+        final Integer count = references.get(bitmap);
+        if (count == null && bitmap.getConfig() != null) {
+            final List<Bitmap> bitmaps = pooled.get(getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig()));
+            if (bitmaps != null && bitmaps.remove(bitmap)) {
+                order.remove(bitmap);
+                size -= BitmapCompat.getByteCount(bitmap);
+            }
+        }
+        references.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Marks the bitmap as no longer used by one of its holders. When the last
+     * holder releases it, the bitmap goes to the pool.
+     *
+     * @param bitmap
+     *            the bitmap
+     */
+    public synchronized void release(final Bitmap bitmap) {
+        final Integer count = references.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            references.put(bitmap, count - 1);
+        } else {
+            references.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    /**
+     * Drops all pooled bitmaps.
+     */
+    public synchronized void clear() {
+        pooled.clear();
+        order.clear();
+        size = 0;
+    }
+
+    /**
+     * Gets the number of bytes of pooled bitmaps.
+     *
+     * @return size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the max size.
+     *
+     * @return maximum size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Gets the number of bitmaps taken from the pool.
+     *
+     * @return the reuse count
+     */
+    public synchronized long getReuseCount() {
+        return reuseCount;
+    }
+
+    /**
+     * Gets the number of requests the pool had no bitmap for.
+     *
+     * @return the miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets the number of bitmaps that could not be pooled or were dropped to
+     * keep the pool within its size.
+     *
+     * @return the drop count
+     */
+    public synchronized long getDropCount() {
+        return dropCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BitmapPool[size=%d,maxSize=%d,reused=%d,misses=%d,dropped=%d]", size, maxSize,
+                reuseCount, missCount, dropCount);
+    }
+
+    /**
+     * Gets the key of bitmaps of the size and config.
+     *
+     * @param width
+     *            the width
+     * @param height
+     *            the height
+     * @param config
+     *            the config
+     * @return the key
+     */
+    private static Long getKey(final int width, final int height, final Config config) {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+}
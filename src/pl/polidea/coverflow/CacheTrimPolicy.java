@@ -0,0 +1,59 @@
+package pl.polidea.coverflow;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * Policy deciding how much of the cover flow caches is released at each
+ * memory trim level reported by the system. Steps are cumulative: each one
+ * releases everything the previous ones do.
+ *
+ */
+public interface CacheTrimPolicy {
+
+    /** Keep all caches. */
+    int TRIM_NONE = 0;
+
+    /** Release bitmaps of positions further than a screen from the visible ones. */
+    int TRIM_FAR_POSITIONS = 1;
+
+    /** Also release secondary tiers: thumbnails, mipmaps and pooled bitmaps. */
+    int TRIM_SECONDARY_TIERS = 2;
+
+    /** Also release all bitmaps but those of visible positions. */
+    int TRIM_ALL_BUT_VISIBLE = 3;
+
+    /** Release all caches, e.g. when the cover flow is not visible. */
+    int TRIM_ALL = 4;
+
+    /**
+     * Policy trimming gradually while the application is running and
+     * releasing everything once its UI is hidden.
+     */
+    CacheTrimPolicy DEFAULT = new CacheTrimPolicy() {
+        @Override
+        public int getTrimStep(final int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                return TRIM_ALL;
+            }
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                return TRIM_ALL_BUT_VISIBLE;
+            }
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                return TRIM_SECONDARY_TIERS;
+            }
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+                return TRIM_FAR_POSITIONS;
+            }
+            return TRIM_NONE;
+        }
+    };
+
+    /**
+     * Gets the trim step for the level.
+     *
+     * @param level
+     *            one of the ComponentCallbacks2.TRIM_MEMORY_* levels
+     * @return one of the TRIM_* steps
+     */
+    int getTrimStep(int level);
+}
@@ -20,14 +20,19 @@
  */
 package pl.polidea.coverflow;
 
+import android.content.ComponentCallbacks;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
-import android.graphics.Camera;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.os.Build;
 import android.util.AttributeSet;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.animation.Transformation;
-import android.widget.Gallery;
+import android.widget.AdapterView;
 import android.widget.ImageView;
 import android.widget.SpinnerAdapter;
 
@@ -35,12 +40,58 @@ import android.widget.SpinnerAdapter;
  * Cover Flow implementation.
  * 
  */
-public class CoverFlow extends Gallery {
+public class CoverFlow extends RecyclingGallery {
 
     /**
-     * Graphics Camera used for transforming the matrix of ImageViews.
+     * Render mode transforming children with matrices computed by the
+     * graphics camera and applied as static transformations. Works on all
+     * API levels; rotated bitmaps are rasterised again on every frame.
      */
-    private final Camera mCamera = new Camera();
+    public static final int RENDER_MODE_STATIC_TRANSFORMATION = 0;
+
+    /**
+     * Render mode rotating and scaling children through view properties and
+     * drawing each child into a hardware layer, so that only composition
+     * changes while scrolling. Requires API level 12 and hardware
+     * acceleration, falls back to static transformations below.
+     */
+    public static final int RENDER_MODE_HARDWARE_LAYERS = 1;
+
+    /**
+     * Reflection mode wrapping the adapter in {@link ReflectingImageAdapter},
+     * which composes and caches a bitmap with reflection for every cover.
+     */
+    public static final int REFLECTION_MODE_BITMAP = 0;
+
+    /**
+     * Reflection mode drawing reflections of children at render time from
+     * the bitmaps they display, so that no second bitmap per cover is made.
+     * Reflection parameters can be changed without reloading covers then.
+     */
+    public static final int REFLECTION_MODE_RENDER = 1;
+
+    /** First API level with view camera distance. */
+    private static final int HONEYCOMB_MR1 = 12;
+
+    /** First API level with memory trim callbacks. */
+    private static final int ICE_CREAM_SANDWICH = 14;
+
+    /** Camera distance of view rotations, in inches as used by Camera. */
+    private static final float CAMERA_DISTANCE_INCHES = 8;
+
+    /** Expected interval between frames, assuming 60 frames per second. */
+    private static final long FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    /** Speed in items per second above which thumbnails are displayed. */
+    private static final float LOW_DETAIL_ITEMS_PER_SECOND = 6;
+
+    /**
+     * Matrices used for transforming ImageViews, cached per rotation angle.
+     */
+    private final CoverTransformCache mTransformCache = new CoverTransformCache();
+
+    /** Whether transformation matrices are taken from the cache. */
+    private boolean transformCacheEnabled = true;
 
     /**
      * The maximum angle the Child ImageView will be rotated by.
@@ -72,6 +123,110 @@ public class CoverFlow extends Gallery {
     /** The image reflection ratio. */
     private float imageReflectionRatio;
 
+    /** The selected position last reported to the adapter. */
+    private int reportedSelection = AdapterView.INVALID_POSITION;
+
+    /** The prefetcher. */
+    private final CoverFlowPrefetcher prefetcher = new CoverFlowPrefetcher();
+
+    /** The prefetch enabled. */
+    private boolean prefetchEnabled = true;
+
+    /** Whether thumbnails are displayed while the covers move fast. */
+    private boolean levelOfDetailEnabled = true;
+
+    /** Whether covers are displayed from mipmaps matching their projected size. */
+    private boolean mipmapsEnabled;
+
+    /** Mipmap level by absolute rotation angle, null until computed. */
+    private int[] mipmapLevels;
+
+    /** Width of the children the mipmap levels were computed for. */
+    private int mipmapLevelsWidth;
+
+    /** Height of the children the mipmap levels were computed for. */
+    private int mipmapLevelsHeight;
+
+    /** Matrix of the child whose mipmap level is chosen. */
+    private final Matrix mipmapMatrix = new Matrix();
+
+    /** Points of the child edges whose projection is measured. */
+    private final float[] mipmapPoints = new float[4];
+
+    /** The disk cache of reflected images. */
+    private DiskBitmapCache reflectionDiskCache;
+
+    /** The render mode. */
+    private int renderMode = RENDER_MODE_STATIC_TRANSFORMATION;
+
+    /** The reflection mode. */
+    private int reflectionMode = REFLECTION_MODE_BITMAP;
+
+    /** Whether reflections of the adapter set are drawn at render time. */
+    private boolean renderingReflections;
+
+    /** The reflection renderer. */
+    private final ReflectionRenderer reflectionRenderer = new ReflectionRenderer();
+
+    /** Matrix of the child whose reflection is drawn. */
+    private final Matrix reflectionMatrix = new Matrix();
+
+    /** The cache trim policy. */
+    private CacheTrimPolicy trimPolicy = CacheTrimPolicy.DEFAULT;
+
+    /** Holder keeping adapter caches across configuration changes, null if none. */
+    private CoverFlowCacheHolder cacheHolder;
+
+    /** Whether the first frame after an adapter is set shows only the selected cover. */
+    private boolean fastStart;
+
+    /** Adapter in fast start, null when none is. */
+    private AbstractCoverFlowImageAdapter fastStartAdapter;
+
+    /** Async loading setting of the adapter in fast start, restored when it ends. */
+    private boolean fastStartAsyncLoading;
+
+    /** Whether the selected cover was loaded ahead of the first layout in fast start. */
+    private boolean fastStartCoverLoaded;
+
+    /** Time the adapter was set, start of the startup trace. */
+    private long startupTime;
+
+    /** Whether the startup is traced, until all visible covers are drawn. */
+    private boolean tracingStartup;
+
+    /** Whether the selected cover was drawn since the adapter was set. */
+    private boolean firstCoverDrawn;
+
+    /** Switches fast start from thumbnails to full size covers after the first frame. */
+    private final Runnable fullDetailLoader = new Runnable() {
+        @Override
+        public void run() {
+            setLowDetail(false);
+        }
+    };
+
+    /** Memory callbacks registered while attached, null below API level 14. */
+    private ComponentCallbacks memoryCallbacks;
+
+    /** The metrics. */
+    private CoverFlowMetrics metrics = CoverFlowMetrics.NONE;
+
+    /** Number of child transformations computed since the previous frame. */
+    private int frameTransforms;
+
+    /** Time the previous frame was drawn at, 0 if none was. */
+    private long lastFrameTime;
+
+    /** Selected position in the previous frame. */
+    private int lastFrameSelection = AdapterView.INVALID_POSITION;
+
+    /** Left edge of the selected child in the previous frame. */
+    private int lastFrameSelectedLeft;
+
+    /** Whether covers were moving in the previous frame. */
+    private boolean lastFrameMoving;
+
     /**
      * Gets the image height.
      * 
@@ -127,6 +282,7 @@ public class CoverFlow extends Gallery {
      */
     public void setReflectionGap(final float reflectionGap) {
         this.reflectionGap = reflectionGap;
+        onReflectionChanged();
     }
 
     /**
@@ -148,6 +304,313 @@ public class CoverFlow extends Gallery {
         this.withReflection = withReflection;
     }
 
+    /**
+     * Sets the disk cache used for reflected images. Takes effect when the
+     * adapter is set. The cache is used only by adapters loading
+     * asynchronously.
+     * 
+     * @param reflectionDiskCache
+     *            the disk cache, null to disable disk caching
+     */
+    public void setReflectionDiskCache(final DiskBitmapCache reflectionDiskCache) {
+        this.reflectionDiskCache = reflectionDiskCache;
+    }
+
+    /**
+     * Gets the disk cache used for reflected images.
+     * 
+     * @return the disk cache
+     */
+    public DiskBitmapCache getReflectionDiskCache() {
+        return reflectionDiskCache;
+    }
+
+    /**
+     * Sets the metrics receiving frame measurements. They are also set on the
+     * adapter displayed, so that they receive cache and decoding
+     * measurements.
+     * 
+     * @param metrics
+     *            the metrics, {@link CoverFlowMetrics#NONE} to disable
+     */
+    public void setMetrics(final CoverFlowMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("The metrics should not be null");
+        }
+        this.metrics = metrics;
+        lastFrameTime = 0;
+        if (getAdapter() instanceof AbstractCoverFlowImageAdapter) {
+            ((AbstractCoverFlowImageAdapter) getAdapter()).setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Gets the metrics.
+     * 
+     * @return the metrics
+     */
+    public CoverFlowMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the policy deciding how much of the adapter caches is released
+     * when the system is low on memory. Memory trim callbacks are only
+     * delivered from API level 14.
+     * 
+     * @param trimPolicy
+     *            the trim policy
+     */
+    public void setTrimPolicy(final CacheTrimPolicy trimPolicy) {
+        if (trimPolicy == null) {
+            throw new IllegalArgumentException("The trim policy should not be null");
+        }
+        this.trimPolicy = trimPolicy;
+    }
+
+    /**
+     * Gets the trim policy.
+     * 
+     * @return the trim policy
+     */
+    public CacheTrimPolicy getTrimPolicy() {
+        return trimPolicy;
+    }
+
+    /**
+     * Sets the holder keeping caches of the adapter across configuration
+     * changes. The adapter set, now or later, takes the bitmaps held. When
+     * the view is detached, bitmaps of the visible covers and their
+     * neighbours stay in the holder's caches instead of being released. When
+     * the view is attached again, caches released meanwhile are warmed in
+     * background only if async loading of the adapter is enabled; otherwise
+     * covers are created again as they are laid out.
+     * 
+     * @param cacheHolder
+     *            the cache holder, null for none
+     */
+    public void setCacheHolder(final CoverFlowCacheHolder cacheHolder) {
+        this.cacheHolder = cacheHolder;
+        if (cacheHolder != null && getAdapter() instanceof AbstractCoverFlowImageAdapter) {
+            cacheHolder.attach((AbstractCoverFlowImageAdapter) getAdapter());
+        }
+    }
+
+    /**
+     * Gets the cache holder.
+     * 
+     * @return the cache holder, null if none
+     */
+    public CoverFlowCacheHolder getCacheHolder() {
+        return cacheHolder;
+    }
+
+    /**
+     * Sets the render mode.
+     * 
+     * @param renderMode
+     *            {@link #RENDER_MODE_STATIC_TRANSFORMATION} or
+     *            {@link #RENDER_MODE_HARDWARE_LAYERS}; the latter is ignored
+     *            below API level 12
+     */
+    public void setRenderMode(final int renderMode) {
+        if (renderMode != RENDER_MODE_STATIC_TRANSFORMATION && renderMode != RENDER_MODE_HARDWARE_LAYERS) {
+            throw new IllegalArgumentException("Unknown render mode: " + renderMode);
+        }
+        final int effectiveMode = Build.VERSION.SDK_INT < HONEYCOMB_MR1 ? RENDER_MODE_STATIC_TRANSFORMATION
+                : renderMode;
+        if (effectiveMode == this.renderMode) {
+            return;
+        }
+        if (mipmapsEnabled && effectiveMode == RENDER_MODE_HARDWARE_LAYERS) {
+            bindMipmaps(true);
+        }
+        this.renderMode = effectiveMode;
+        setStaticTransformationsEnabled(effectiveMode == RENDER_MODE_STATIC_TRANSFORMATION);
+        if (effectiveMode == RENDER_MODE_STATIC_TRANSFORMATION) {
+            for (int i = 0; i < getChildCount(); i++) {
+                resetViewProperties(getChildAt(i));
+            }
+        } else {
+            applyViewProperties();
+        }
+        if (getAdapter() instanceof AbstractCoverFlowImageAdapter) {
+            ((AbstractCoverFlowImageAdapter) getAdapter()).setMipmapsEnabled(isDrawingMipmaps());
+        }
+        if (isDrawingMipmaps()) {
+            bindMipmaps(false);
+        }
+        invalidate();
+    }
+
+    /**
+     * Sets the reflection mode used when reflection is enabled. Takes effect
+     * when the adapter is set.
+     * 
+     * @param reflectionMode
+     *            {@link #REFLECTION_MODE_BITMAP} or
+     *            {@link #REFLECTION_MODE_RENDER}
+     */
+    public void setReflectionMode(final int reflectionMode) {
+        if (reflectionMode != REFLECTION_MODE_BITMAP && reflectionMode != REFLECTION_MODE_RENDER) {
+            throw new IllegalArgumentException("Unknown reflection mode: " + reflectionMode);
+        }
+        this.reflectionMode = reflectionMode;
+    }
+
+    /**
+     * Gets the reflection mode.
+     * 
+     * @return the reflection mode
+     */
+    public int getReflectionMode() {
+        return reflectionMode;
+    }
+
+    /**
+     * Applies changed reflection parameters when reflections are drawn at
+     * render time. Reflections composed into bitmaps change only when the
+     * adapter is set again.
+     */
+    private void onReflectionChanged() {
+        if (renderingReflections) {
+            setItemBottomMargin((int) Math.ceil(reflectionGap + imageHeight * imageReflectionRatio));
+            invalidate();
+        }
+    }
+
+    /**
+     * Gets the render mode in effect.
+     * 
+     * @return the render mode
+     */
+    public int getRenderMode() {
+        return renderMode;
+    }
+
+    /**
+     * Switches prefetching of covers the flow is moving towards. Covers are
+     * only prefetched for adapters with async loading enabled. Enabled by
+     * default.
+     * 
+     * @param prefetchEnabled
+     *            whether covers should be prefetched
+     */
+    public void setPrefetchEnabled(final boolean prefetchEnabled) {
+        this.prefetchEnabled = prefetchEnabled;
+        if (!prefetchEnabled) {
+            prefetcher.cancelAll();
+        }
+    }
+
+    /**
+     * Checks if is prefetch enabled.
+     * 
+     * @return true, if is prefetch enabled
+     */
+    public boolean isPrefetchEnabled() {
+        return prefetchEnabled;
+    }
+
+    /**
+     * Switches level of detail rendering. When enabled, adapters supporting
+     * thumbnails display them for covers not cached yet while the flow moves
+     * faster than a few covers per second, and full size covers are bound
+     * once it stops. Enabled by default.
+     * 
+     * @param levelOfDetailEnabled
+     *            whether thumbnails should be displayed during fast scrolls
+     */
+    public void setLevelOfDetailEnabled(final boolean levelOfDetailEnabled) {
+        this.levelOfDetailEnabled = levelOfDetailEnabled;
+        if (!levelOfDetailEnabled) {
+            setLowDetail(false);
+        }
+    }
+
+    /**
+     * Checks if is level of detail enabled.
+     * 
+     * @return true, if thumbnails are displayed during fast scrolls
+     */
+    public boolean isLevelOfDetailEnabled() {
+        return levelOfDetailEnabled;
+    }
+
+    /**
+     * Switches mipmapping. When enabled, the adapter creates half and quarter
+     * size copies of the covers, and covers whose projected width is at most
+     * half or a quarter of their width - the tilted side covers - are drawn
+     * from them, which cuts texture upload and sampling cost. Disabled by
+     * default, as every cover decoded then costs two more scaled copies.
+     * Ignored in {@link #RENDER_MODE_HARDWARE_LAYERS} mode, where swapping
+     * the bitmaps would redraw the layers of the covers.
+     * 
+     * @param mipmapsEnabled
+     *            whether covers should be drawn from mipmaps
+     */
+    public void setMipmapsEnabled(final boolean mipmapsEnabled) {
+        if (mipmapsEnabled == this.mipmapsEnabled) {
+            return;
+        }
+        if (!mipmapsEnabled) {
+            bindMipmaps(true);
+        }
+        this.mipmapsEnabled = mipmapsEnabled;
+        if (getAdapter() instanceof AbstractCoverFlowImageAdapter) {
+            ((AbstractCoverFlowImageAdapter) getAdapter()).setMipmapsEnabled(isDrawingMipmaps());
+        }
+        if (isDrawingMipmaps()) {
+            bindMipmaps(false);
+        }
+        invalidate();
+    }
+
+    /**
+     * Checks if is mipmaps enabled.
+     * 
+     * @return true, if covers are drawn from mipmaps
+     */
+    public boolean isMipmapsEnabled() {
+        return mipmapsEnabled;
+    }
+
+    /**
+     * Checks if covers are drawn from mipmaps, i.e. mipmaps are enabled and
+     * covers are transformed statically.
+     * 
+     * @return true, if covers are drawn from mipmaps
+     */
+    private boolean isDrawingMipmaps() {
+        return mipmapsEnabled && renderMode == RENDER_MODE_STATIC_TRANSFORMATION;
+    }
+
+    /**
+     * Switches fast start. In fast start, when an adapter is set only the
+     * thumbnail of the selected cover is decoded before the first frame - or
+     * its full size cover if the adapter does not create thumbnails - and
+     * other covers show the placeholder. After the first frame full size
+     * covers, with their reflections, are loaded in background starting from
+     * the selected one, and the adapter's async loading setting is restored
+     * once all visible covers are drawn or the view is detached. Should be
+     * set before the adapter. Disabled by default.
+     * 
+     * @param fastStart
+     *            whether the first frame should show only the selected cover
+     */
+    public void setFastStart(final boolean fastStart) {
+        this.fastStart = fastStart;
+    }
+
+    /**
+     * Checks if is fast start.
+     * 
+     * @return true, if the first frame shows only the selected cover
+     */
+    public boolean isFastStart() {
+        return fastStart;
+    }
+
     /**
      * Sets the image reflection ratio.
      * 
@@ -156,6 +619,7 @@ public class CoverFlow extends Gallery {
      */
     public void setImageReflectionRatio(final float imageReflectionRatio) {
         this.imageReflectionRatio = imageReflectionRatio;
+        onReflectionChanged();
     }
 
     /**
@@ -169,6 +633,7 @@ public class CoverFlow extends Gallery {
 
     public CoverFlow(final Context context) {
         super(context);
+        mTransformCache.setParameters(mMaxRotationAngle, mMaxZoom);
         this.setStaticTransformationsEnabled(true);
     }
 
@@ -178,8 +643,9 @@ public class CoverFlow extends Gallery {
 
     public CoverFlow(final Context context, final AttributeSet attrs, final int defStyle) {
         super(context, attrs, defStyle);
-        parseAttributes(context, attrs);
+        mTransformCache.setParameters(mMaxRotationAngle, mMaxZoom);
         this.setStaticTransformationsEnabled(true);
+        parseAttributes(context, attrs);
     }
 
     /**
@@ -203,19 +669,132 @@ public class CoverFlow extends Gallery {
             throw new IllegalArgumentException("The adapter should derive from "
                     + AbstractCoverFlowImageAdapter.class.getName());
         }
+        finishFastStart();
         final AbstractCoverFlowImageAdapter coverAdapter = (AbstractCoverFlowImageAdapter) adapter;
         coverAdapter.setWidth(imageWidth);
         coverAdapter.setHeight(imageHeight);
-        if (withReflection) {
+        reflectionRenderer.clear();
+        renderingReflections = withReflection && reflectionMode == REFLECTION_MODE_RENDER;
+        if (renderingReflections) {
+            onReflectionChanged();
+        } else {
+            setItemBottomMargin(0);
+        }
+        if (withReflection && !renderingReflections) {
             final ReflectingImageAdapter reflectAdapter = new ReflectingImageAdapter(coverAdapter);
             reflectAdapter.setReflectionGap(reflectionGap);
             reflectAdapter.setWidthRatio(imageReflectionRatio);
             reflectAdapter.setWidth(imageWidth);
             reflectAdapter.setHeight(imageHeight * (1 + imageReflectionRatio));
+            reflectAdapter.setAsyncLoading(coverAdapter.isAsyncLoading());
+            reflectAdapter.setPlaceholder(coverAdapter.getPlaceholder());
+            reflectAdapter.setDiskCache(reflectionDiskCache);
+            reflectAdapter.setMetrics(metrics);
+            reflectAdapter.setMipmapsEnabled(isDrawingMipmaps());
+            if (cacheHolder != null) {
+                cacheHolder.attach(reflectAdapter);
+            }
             super.setAdapter(reflectAdapter);
         } else {
+            coverAdapter.setMetrics(metrics);
+            coverAdapter.setMipmapsEnabled(isDrawingMipmaps());
+            if (cacheHolder != null) {
+                cacheHolder.attach(coverAdapter);
+            }
             super.setAdapter(adapter);
         }
+        reportedSelection = AdapterView.INVALID_POSITION;
+        prefetcher.cancelAll();
+        beginStartup((AbstractCoverFlowImageAdapter) getAdapter());
+    }
+
+    /**
+     * Starts tracing the startup with the adapter and, in fast start, makes
+     * the adapter load covers in background, as thumbnails first.
+     * 
+     * @param coverAdapter
+     *            the adapter displayed
+     */
+    private void beginStartup(final AbstractCoverFlowImageAdapter coverAdapter) {
+        startupTime = System.nanoTime();
+        tracingStartup = true;
+        firstCoverDrawn = false;
+        if (fastStart) {
+            fastStartAdapter = coverAdapter;
+            fastStartAsyncLoading = coverAdapter.isAsyncLoading();
+            fastStartCoverLoaded = false;
+            coverAdapter.setAsyncLoading(true);
+            setLowDetail(true);
+        }
+    }
+
+    /**
+     * Restores settings of the adapter in fast start, if any. Called when
+     * all visible covers are drawn, when another adapter is set and when the
+     * view is detached, so the adapter never stays in its startup state.
+     */
+    private void finishFastStart() {
+        if (fastStartAdapter != null) {
+            removeCallbacks(fullDetailLoader);
+            fastStartAdapter.setAsyncLoading(fastStartAsyncLoading);
+            // set on the adapter itself, as it may be replaced or the view
+            // detached, when its views need not be rebound
+            fastStartAdapter.setLowDetail(false);
+            fastStartAdapter = null;
+        }
+    }
+
+    /**
+     * Reports startup times once the selected cover and then all visible
+     * covers at full size are drawn. In fast start, loading of full size
+     * covers is started after the first frame showing the selected cover.
+     */
+    private void traceStartup() {
+        if (getChildCount() == 0) {
+            return;
+        }
+        final AbstractCoverFlowImageAdapter coverAdapter = (AbstractCoverFlowImageAdapter) getAdapter();
+        final long elapsed = System.nanoTime() - startupTime;
+        if (!firstCoverDrawn) {
+            final View selected = getSelectedView();
+            if (!(selected instanceof ImageView) || !coverAdapter.isBound((ImageView) selected)) {
+                return;
+            }
+            firstCoverDrawn = true;
+            metrics.onFirstCoverDrawn(elapsed);
+            if (fastStartAdapter != null) {
+                // lets the frame reach the screen before views are rebound
+                post(fullDetailLoader);
+            }
+        }
+        for (int i = 0; i < getChildCount(); i++) {
+            final View child = getChildAt(i);
+            if (!(child instanceof ImageView) || !coverAdapter.isFullyBound((ImageView) child)) {
+                return;
+            }
+        }
+        tracingStartup = false;
+        metrics.onFullyPopulated(elapsed);
+        finishFastStart();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see pl.polidea.coverflow.RecyclingGallery#onMeasure(int, int)
+     */
+    @Override
+    protected void onMeasure(final int widthMeasureSpec, final int heightMeasureSpec) {
+        final int selection = getSelectedItemPosition();
+        if (fastStartAdapter != null && !fastStartCoverLoaded && selection != AdapterView.INVALID_POSITION) {
+            fastStartCoverLoaded = true;
+            // the only cover decoded before the first frame, other views get
+            // the placeholder and load in background
+            if (fastStartAdapter.getThumbnail(selection) == null) {
+                fastStartAdapter.getItem(selection);
+            }
+        }
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
     }
 
     /**
@@ -226,6 +805,9 @@ public class CoverFlow extends Gallery {
      */
     public void setMaxRotationAngle(final int maxRotationAngle) {
         mMaxRotationAngle = maxRotationAngle;
+        mTransformCache.setParameters(mMaxRotationAngle, mMaxZoom);
+        mipmapLevels = null;
+        applyViewProperties();
     }
 
     /**
@@ -245,6 +827,30 @@ public class CoverFlow extends Gallery {
      */
     public void setMaxZoom(final int maxZoom) {
         mMaxZoom = maxZoom;
+        mTransformCache.setParameters(mMaxRotationAngle, mMaxZoom);
+        mipmapLevels = null;
+        applyViewProperties();
+    }
+
+    /**
+     * Switches caching of transformation matrices. When disabled, the matrix
+     * of every child is computed with graphics camera on every frame. Enabled
+     * by default, disabling it is only useful for comparison.
+     * 
+     * @param transformCacheEnabled
+     *            whether transformation matrices should be cached
+     */
+    public void setTransformCacheEnabled(final boolean transformCacheEnabled) {
+        this.transformCacheEnabled = transformCacheEnabled;
+    }
+
+    /**
+     * Checks if is transform cache enabled.
+     * 
+     * @return true, if transformation matrices are cached
+     */
+    public boolean isTransformCacheEnabled() {
+        return transformCacheEnabled;
     }
 
     /**
@@ -265,6 +871,307 @@ public class CoverFlow extends Gallery {
         return view.getLeft() + view.getWidth() / 2;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see android.view.ViewGroup#dispatchDraw(android.graphics.Canvas)
+     */
+    @Override
+    protected void dispatchDraw(final Canvas canvas) {
+        reportSelection();
+        super.dispatchDraw(canvas);
+        if (metrics != CoverFlowMetrics.NONE) {
+            reportFrame();
+        }
+        frameTransforms = 0;
+        if (tracingStartup) {
+            traceStartup();
+        }
+    }
+
+    /**
+     * Reports the frame drawn to the metrics. Frames are counted as dropped
+     * only between two consecutive frames in which the covers moved, so that
+     * idle time between scrolls is not taken for jank.
+     */
+    private void reportFrame() {
+        final long now = System.nanoTime();
+        final int selection = getSelectedItemPosition();
+        final View selectedView = getSelectedView();
+        final int selectedLeft = selectedView == null ? 0 : selectedView.getLeft();
+        final boolean moving = lastFrameTime != 0
+                && (selection != lastFrameSelection || selectedLeft != lastFrameSelectedLeft);
+        int droppedFrames = 0;
+        if (moving && lastFrameMoving) {
+            droppedFrames = (int) Math.max(0, (now - lastFrameTime - FRAME_INTERVAL_NANOS / 2)
+                    / FRAME_INTERVAL_NANOS);
+        }
+        metrics.onFrameDrawn(frameTransforms, droppedFrames);
+        lastFrameTime = now;
+        lastFrameSelection = selection;
+        lastFrameSelectedLeft = selectedLeft;
+        lastFrameMoving = moving;
+    }
+
+    /**
+     * Makes each child display the mipmap matching its projected size. The
+     * bitmap of a child is only swapped when its rotation crosses into
+     * another mipmap level. Called when the children move rather than while
+     * they are drawn.
+     * 
+     * @param fullSize
+     *            whether all children should display full size bitmaps
+     */
+    private void bindMipmaps(final boolean fullSize) {
+        if (!(getAdapter() instanceof AbstractCoverFlowImageAdapter)) {
+            return;
+        }
+        final AbstractCoverFlowImageAdapter coverAdapter = (AbstractCoverFlowImageAdapter) getAdapter();
+        final int firstPosition = getFirstVisiblePosition();
+        for (int i = 0; i < getChildCount(); i++) {
+            final View child = getChildAt(i);
+            if (child instanceof ImageView) {
+                coverAdapter.bindMipmap((ImageView) child, firstPosition + i, fullSize ? 0 : getMipmapLevel(child));
+            }
+        }
+    }
+
+    /**
+     * Gets the mipmap level matching the projected size of the child, looked
+     * up by its rotation angle.
+     * 
+     * @param child
+     *            the child
+     * @return the mipmap level, 0 for the full size bitmap
+     */
+    private int getMipmapLevel(final View child) {
+        final int width = child.getLayoutParams().width;
+        final int height = child.getLayoutParams().height;
+        if (width <= 0) {
+            return 0;
+        }
+        if (mipmapLevels == null || width != mipmapLevelsWidth || height != mipmapLevelsHeight) {
+            computeMipmapLevels(child);
+        }
+        return mipmapLevels[Math.min(Math.abs(getRotationAngle(child)), mipmapLevels.length - 1)];
+    }
+
+    /**
+     * Computes the mipmap level for each rotation angle of children of the
+     * size of the child. Covers are tilted around the vertical axis, so their
+     * width shrinks much faster than their height and the level is chosen
+     * from the projected width along the horizontal centre line.
+     * 
+     * @param child
+     *            the child
+     */
+    private void computeMipmapLevels(final View child) {
+        final int width = child.getLayoutParams().width;
+        final float centreY = child.getLayoutParams().height / 2.0f;
+        final int[] levels = new int[Math.abs(mMaxRotationAngle) + 1];
+        for (int angle = 0; angle < levels.length; angle++) {
+            computeChildMatrix(child, angle, mipmapMatrix);
+            mipmapPoints[0] = 0;
+            mipmapPoints[1] = centreY;
+            mipmapPoints[2] = width;
+            mipmapPoints[3] = centreY;
+            mipmapMatrix.mapPoints(mipmapPoints);
+            float projectedScale = Math.abs(mipmapPoints[2] - mipmapPoints[0]) / width;
+            int level = 0;
+            while (level < AbstractCoverFlowImageAdapter.MIPMAP_LEVELS - 1 && projectedScale <= 0.5f) {
+                projectedScale *= 2;
+                level++;
+            }
+            levels[angle] = level;
+        }
+        mipmapLevels = levels;
+        mipmapLevelsWidth = width;
+        mipmapLevelsHeight = child.getLayoutParams().height;
+    }
+
+    /**
+     * Informs the adapter about the selected position when it has changed.
+     */
+    private void reportSelection() {
+        final int selection = getSelectedItemPosition();
+        if (selection != reportedSelection && getAdapter() instanceof AbstractCoverFlowImageAdapter) {
+            final AbstractCoverFlowImageAdapter coverAdapter = (AbstractCoverFlowImageAdapter) getAdapter();
+            coverAdapter.setSelectedPosition(selection);
+            if (prefetchEnabled && selection != AdapterView.INVALID_POSITION) {
+                prefetcher.onSelectionChanged(coverAdapter, reportedSelection, selection);
+            }
+            reportedSelection = selection;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see pl.polidea.coverflow.RecyclingGallery#onFling(android.view.MotionEvent,
+     * android.view.MotionEvent, float, float)
+     */
+    @Override
+    public boolean onFling(final MotionEvent e1, final MotionEvent e2, final float velocityX, final float velocityY) {
+        if (prefetchEnabled) {
+            prefetcher.onFling(velocityX);
+        }
+        return super.onFling(e1, e2, velocityX, velocityY);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see android.view.View#onAttachedToWindow()
+     */
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (Build.VERSION.SDK_INT >= ICE_CREAM_SANDWICH) {
+            if (memoryCallbacks == null) {
+                memoryCallbacks = new MemoryCallbacks();
+            }
+            getContext().getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+        }
+        if (cacheHolder != null && getAdapter() instanceof AbstractCoverFlowImageAdapter) {
+            cacheHolder.attach((AbstractCoverFlowImageAdapter) getAdapter());
+        }
+        // only for async adapters, see setCacheHolder
+        warmCaches();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see android.view.View#onDetachedFromWindow()
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        if (memoryCallbacks != null) {
+            getContext().getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        }
+        // bitmaps near the visible covers are kept for the view replacing
+        // this one after a configuration change
+        finishFastStart();
+        trimCaches(cacheHolder == null ? CacheTrimPolicy.TRIM_ALL : CacheTrimPolicy.TRIM_SECONDARY_TIERS);
+        if (cacheHolder != null) {
+            // the caches must not keep the adapter and its context reachable
+            cacheHolder.detach();
+        }
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Releases adapter caches according to the trim step.
+     * 
+     * @param trimStep
+     *            one of the {@link CacheTrimPolicy} steps
+     */
+    private void trimCaches(final int trimStep) {
+        if (trimStep == CacheTrimPolicy.TRIM_NONE || !(getAdapter() instanceof AbstractCoverFlowImageAdapter)) {
+            return;
+        }
+        prefetcher.cancelAll();
+        if (trimStep >= CacheTrimPolicy.TRIM_SECONDARY_TIERS) {
+            reflectionRenderer.clear();
+        }
+        ((AbstractCoverFlowImageAdapter) getAdapter()).trimMemory(trimStep, getFirstVisiblePosition(),
+                getLastVisiblePosition());
+    }
+
+    /**
+     * Starts loading bitmaps of the visible positions and their neighbours
+     * into the adapter cache, e.g. after caches were released on detach.
+     * Skipped unless async loading is enabled, as bitmaps cannot be loaded
+     * in background then and layout creates the visible ones anyway.
+     */
+    private void warmCaches() {
+        if (getChildCount() == 0 || !(getAdapter() instanceof AbstractCoverFlowImageAdapter)) {
+            return;
+        }
+        final AbstractCoverFlowImageAdapter coverAdapter = (AbstractCoverFlowImageAdapter) getAdapter();
+        final int selection = getSelectedItemPosition();
+        coverAdapter.setSelectedPosition(selection);
+        if (!coverAdapter.isAsyncLoading()) {
+            return;
+        }
+        coverAdapter.prefetch(selection);
+        for (int distance = 1; selection - distance >= getFirstVisiblePosition() - 1
+                || selection + distance <= getLastVisiblePosition() + 1; distance++) {
+            coverAdapter.prefetch(selection - distance);
+            coverAdapter.prefetch(selection + distance);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see pl.polidea.coverflow.RecyclingGallery#onScrollVelocityChanged(float)
+     */
+    @Override
+    protected void onScrollVelocityChanged(final float velocity) {
+        if (levelOfDetailEnabled && Math.abs(velocity) > LOW_DETAIL_ITEMS_PER_SECOND * getItemStep()) {
+            setLowDetail(true);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see pl.polidea.coverflow.RecyclingGallery#onScrollFinished()
+     */
+    @Override
+    protected void onScrollFinished() {
+        super.onScrollFinished();
+        setLowDetail(false);
+    }
+
+    /**
+     * Switches low detail mode of the adapter. When switched off, the views
+     * displayed are requested again, so that thumbnails are replaced with
+     * full size covers.
+     * 
+     * @param lowDetail
+     *            whether thumbnails should be displayed
+     */
+    private void setLowDetail(final boolean lowDetail) {
+        if (!(getAdapter() instanceof AbstractCoverFlowImageAdapter)) {
+            return;
+        }
+        final AbstractCoverFlowImageAdapter coverAdapter = (AbstractCoverFlowImageAdapter) getAdapter();
+        if (coverAdapter.isLowDetail() == lowDetail) {
+            return;
+        }
+        coverAdapter.setLowDetail(lowDetail);
+        if (!lowDetail) {
+            final int firstPosition = getFirstVisiblePosition();
+            for (int i = 0; i < getChildCount(); i++) {
+                coverAdapter.getView(firstPosition + i, getChildAt(i), this);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see android.view.ViewGroup#drawChild(android.graphics.Canvas,
+     * android.view.View, long)
+     */
+    @Override
+    protected boolean drawChild(final Canvas canvas, final View child, final long drawingTime) {
+        final boolean more = super.drawChild(canvas, child, drawingTime);
+        if (renderingReflections && child instanceof ImageView) {
+            final Matrix childMatrix;
+            if (renderMode == RENDER_MODE_HARDWARE_LAYERS) {
+                childMatrix = child.getMatrix();
+            } else {
+                computeChildMatrix(child, getRotationAngle(child), reflectionMatrix);
+                childMatrix = reflectionMatrix;
+            }
+            reflectionRenderer.draw(canvas, (ImageView) child, childMatrix, imageReflectionRatio, reflectionGap);
+        }
+        return more;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -272,25 +1179,111 @@ public class CoverFlow extends Gallery {
      */
     @Override
     protected boolean getChildStaticTransformation(final View child, final Transformation t) {
-
-        final int childCenter = getCenterOfView(child);
-        final int childWidth = child.getWidth();
-        int rotationAngle = 0;
+        frameTransforms++;
 
         t.clear();
         t.setTransformationType(Transformation.TYPE_MATRIX);
 
+        transformImageBitmap((ImageView) child, t, getRotationAngle(child));
+
+        return true;
+    }
+
+    /**
+     * Gets the angle the child should be rotated by, depending on its
+     * distance from the centre.
+     * 
+     * @param child
+     *            the child
+     * @return the rotation angle
+     */
+    private int getRotationAngle(final View child) {
+        final int childCenter = getCenterOfView(child);
         if (childCenter == mCoveflowCenter) {
-            transformImageBitmap((ImageView) child, t, 0);
-        } else {
-            rotationAngle = (int) ((float) (mCoveflowCenter - childCenter) / childWidth * mMaxRotationAngle);
-            if (Math.abs(rotationAngle) > mMaxRotationAngle) {
-                rotationAngle = rotationAngle < 0 ? -mMaxRotationAngle : mMaxRotationAngle;
-            }
-            transformImageBitmap((ImageView) child, t, rotationAngle);
+            return 0;
+        }
+        final int rotationAngle = (int) ((float) (mCoveflowCenter - childCenter) / child.getWidth()
+                * mMaxRotationAngle);
+        if (Math.abs(rotationAngle) > mMaxRotationAngle) {
+            return rotationAngle < 0 ? -mMaxRotationAngle : mMaxRotationAngle;
         }
+        return rotationAngle;
+    }
 
-        return true;
+    /*
+     * (non-Javadoc)
+     * 
+     * @see pl.polidea.coverflow.RecyclingGallery#onChildrenLaidOut()
+     */
+    @Override
+    protected void onChildrenLaidOut() {
+        applyViewProperties();
+        if (isDrawingMipmaps()) {
+            bindMipmaps(false);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see pl.polidea.coverflow.RecyclingGallery#onChildRecycled(android.view.View)
+     */
+    @Override
+    protected void onChildRecycled(final View child) {
+        if (renderMode == RENDER_MODE_HARDWARE_LAYERS) {
+            // the layer type is kept, as the view is likely to be reused here
+            child.setRotationY(0);
+            child.setScaleX(1);
+            child.setScaleY(1);
+        }
+    }
+
+    /**
+     * Applies the view properties to all children in hardware layers mode.
+     * Called when the children move rather than while they are drawn, so that
+     * setting the properties does not invalidate during the draw pass.
+     */
+    private void applyViewProperties() {
+        if (renderMode != RENDER_MODE_HARDWARE_LAYERS) {
+            return;
+        }
+        for (int i = 0; i < getChildCount(); i++) {
+            applyViewProperties(getChildAt(i));
+        }
+    }
+
+    /**
+     * Rotates and scales the child through its view properties and makes it
+     * draw into a hardware layer. Views skip invalidation when a property is
+     * set to its current value, so children that did not move cost nothing.
+     * 
+     * @param child
+     *            the child
+     */
+    private void applyViewProperties(final View child) {
+        frameTransforms++;
+        if (child.getLayerType() != View.LAYER_TYPE_HARDWARE) {
+            child.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+            child.setCameraDistance(CAMERA_DISTANCE_INCHES * getResources().getDisplayMetrics().densityDpi);
+        }
+        final int rotationAngle = getRotationAngle(child);
+        final float scale = mTransformCache.computeScale(rotationAngle);
+        child.setRotationY(rotationAngle);
+        child.setScaleX(scale);
+        child.setScaleY(scale);
+    }
+
+    /**
+     * Removes rotation, scale and layer set in hardware layers mode.
+     * 
+     * @param child
+     *            the child
+     */
+    private static void resetViewProperties(final View child) {
+        child.setRotationY(0);
+        child.setScaleX(1);
+        child.setScaleY(1);
+        child.setLayerType(View.LAYER_TYPE_NONE, null);
     }
 
     /**
@@ -324,27 +1317,29 @@ public class CoverFlow extends Gallery {
      *            the Angle by which to rotate the Bitmap
      */
     private void transformImageBitmap(final ImageView child, final Transformation t, final int rotationAngle) {
-        mCamera.save();
-        final Matrix imageMatrix = t.getMatrix();
+        computeChildMatrix(child, rotationAngle, t.getMatrix());
+    }
 
+    /**
+     * Computes the matrix the child is drawn with in static transformation
+     * mode.
+     * 
+     * @param child
+     *            the child
+     * @param rotationAngle
+     *            the Angle by which to rotate the child
+     * @param matrix
+     *            the matrix to set
+     */
+    private void computeChildMatrix(final View child, final int rotationAngle, final Matrix matrix) {
         final int height = child.getLayoutParams().height;
 
         final int width = child.getLayoutParams().width;
-        final int rotation = Math.abs(rotationAngle);
-
-        mCamera.translate(0.0f, 0.0f, 100.0f);
-
-        // As the angle of the view gets less, zoom in
-        if (rotation < mMaxRotationAngle) {
-            final float zoomAmount = (float) (mMaxZoom + rotation * 1.5);
-            mCamera.translate(0.0f, 0.0f, zoomAmount);
+        if (transformCacheEnabled) {
+            mTransformCache.getMatrix(rotationAngle, width, height, matrix);
+        } else {
+            mTransformCache.computeMatrix(rotationAngle, width, height, matrix);
         }
-
-        mCamera.rotateY(rotationAngle);
-        mCamera.getMatrix(imageMatrix);
-        imageMatrix.preTranslate(-(width / 2.0f), -(height / 2.0f));
-        imageMatrix.postTranslate((width / 2.0f), (height / 2.0f));
-        mCamera.restore();
     }
 
     /**
@@ -363,10 +1358,35 @@ public class CoverFlow extends Gallery {
             withReflection = a.getBoolean(R.styleable.CoverFlow_withReflection, false);
             imageReflectionRatio = a.getFloat(R.styleable.CoverFlow_imageReflectionRatio, 0.2f);
             reflectionGap = a.getDimension(R.styleable.CoverFlow_reflectionGap, 4);
+            setRenderMode(a.getInt(R.styleable.CoverFlow_renderMode, RENDER_MODE_STATIC_TRANSFORMATION));
+            setReflectionMode(a.getInt(R.styleable.CoverFlow_reflectionMode, REFLECTION_MODE_BITMAP));
+            fastStart = a.getBoolean(R.styleable.CoverFlow_fastStart, false);
             setSpacing(-15);
         } finally {
             a.recycle();
         }
     }
 
+    /**
+     * Trims caches when the system reports memory pressure. Registered with
+     * the application context while the view is attached.
+     */
+    private final class MemoryCallbacks implements ComponentCallbacks2 {
+
+        @Override
+        public void onTrimMemory(final int level) {
+            trimCaches(trimPolicy.getTrimStep(level));
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimCaches(CacheTrimPolicy.TRIM_ALL_BUT_VISIBLE);
+        }
+
+        @Override
+        public void onConfigurationChanged(final Configuration newConfig) {
+            // caches do not depend on configuration
+        }
+    }
+
 }
\ No newline at end of file
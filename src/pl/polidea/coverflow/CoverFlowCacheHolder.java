@@ -0,0 +1,149 @@
+package pl.polidea.coverflow;
+
+import android.graphics.Bitmap;
+
+/**
+ * Keeps bitmap caches of a cover flow adapter across configuration changes.
+ * The activity keeps the holder independently of its own lifecycle - e.g.
+ * returns it from onRetainNonConfigurationInstance - and sets it on the cover
+ * flow it creates again, whose new adapter then starts with the bitmaps
+ * decoded for the previous one, so that covers are not decoded again after a
+ * rotation.
+ *
+ * Cached bitmaps are kept by position, so the holder must only be used with
+ * adapters showing the same items at the same positions. Caches of bitmaps of
+ * another size are dropped. The activity should call {@link #clear()} when it
+ * finishes for good, so that the bitmaps can be reused.
+ *
+ * While no adapter is attached, bitmaps leaving the caches are released by the
+ * holder itself, so that the caches do not keep the previous adapter - and
+ * through it the destroyed activity - reachable.
+ *
+ */
+public class CoverFlowCacheHolder {
+
+    /** The bitmap cache, null until the holder is attached. */
+    private BitmapCache bitmapCache;
+
+    /** The thumbnail cache. */
+    private BitmapCache thumbnailCache;
+
+    /** The mipmap caches, index is the level minus one. */
+    private final BitmapCache[] mipmapCaches = new BitmapCache[AbstractCoverFlowImageAdapter.MIPMAP_LEVELS - 1];
+
+    /** Width of the bitmaps held. */
+    private float width;
+
+    /** Height of the bitmaps held. */
+    private float height;
+
+    /** Releases bitmaps leaving the caches while no adapter is attached. */
+    private BitmapCache.OnBitmapRemovedListener detachedListener;
+
+    /**
+     * Releases bitmaps leaving the caches to the pool and the shared store
+     * they were retained in.
+     */
+    private static final class ReleasingListener implements BitmapCache.OnBitmapRemovedListener {
+
+        /** The bitmap pool. */
+        private final BitmapPool bitmapPool;
+
+        /** The shared store. */
+        private final SharedBitmapStore sharedStore;
+
+        /**
+         * Creates the listener.
+         *
+         * @param bitmapPool
+         *            the bitmap pool
+         * @param sharedStore
+         *            the shared store
+         */
+        ReleasingListener(final BitmapPool bitmapPool, final SharedBitmapStore sharedStore) {
+            this.bitmapPool = bitmapPool;
+            this.sharedStore = sharedStore;
+        }
+
+        @Override
+        public void onBitmapRemoved(final int position, final Bitmap bitmap) {
+            sharedStore.release(bitmap);
+            bitmapPool.release(bitmap);
+        }
+    }
+
+    /**
+     * Makes the adapter use the caches held. If none are held yet, or they
+     * hold bitmaps of another size, the caches of the adapter are held
+     * instead. Should be called on UI thread after the adapter size is set,
+     * and again when the view displaying the adapter is attached after
+     * {@link #detach()}.
+     *
+     * @param adapter
+     *            the adapter
+     */
+    public synchronized void attach(final AbstractCoverFlowImageAdapter adapter) {
+        if (bitmapCache == null || width != adapter.getWidth() || height != adapter.getHeight()) {
+            clear();
+            bitmapCache = adapter.getBitmapCache();
+            thumbnailCache = adapter.getThumbnailCache();
+            for (int i = 0; i < mipmapCaches.length; i++) {
+                mipmapCaches[i] = adapter.getMipmapCache(i + 1);
+            }
+            width = adapter.getWidth();
+            height = adapter.getHeight();
+        } else {
+            // also takes the caches back from the detached listener
+            adapter.setBitmapCache(bitmapCache);
+            adapter.setThumbnailCache(thumbnailCache);
+            for (int i = 0; i < mipmapCaches.length; i++) {
+                adapter.setMipmapCache(i + 1, mipmapCaches[i]);
+            }
+        }
+        detachedListener = new ReleasingListener(adapter.getBitmapPool(), adapter.getSharedBitmapStore());
+    }
+
+    /**
+     * Detaches the caches held from the adapter using them, e.g. when the
+     * view displaying it is detached on a configuration change. Bitmaps
+     * leaving the caches are released by the holder until an adapter is
+     * attached again.
+     */
+    public synchronized void detach() {
+        if (bitmapCache == null) {
+            return;
+        }
+        bitmapCache.setOnBitmapRemovedListener(detachedListener);
+        thumbnailCache.setOnBitmapRemovedListener(detachedListener);
+        for (final BitmapCache mipmapCache : mipmapCaches) {
+            mipmapCache.setOnBitmapRemovedListener(detachedListener);
+        }
+    }
+
+    /**
+     * Checks if the holder holds caches.
+     *
+     * @return true, if it was attached since created or cleared
+     */
+    public synchronized boolean isAttached() {
+        return bitmapCache != null;
+    }
+
+    /**
+     * Drops the bitmaps held and forgets the caches.
+     */
+    public synchronized void clear() {
+        if (bitmapCache == null) {
+            return;
+        }
+        bitmapCache.clear();
+        thumbnailCache.clear();
+        for (int i = 0; i < mipmapCaches.length; i++) {
+            mipmapCaches[i].clear();
+            mipmapCaches[i] = null;
+        }
+        bitmapCache = null;
+        thumbnailCache = null;
+        detachedListener = null;
+    }
+}
@@ -0,0 +1,113 @@
+package pl.polidea.coverflow;
+
+/**
+ * Receives performance measurements from the cover flow and its adapters, so
+ * that it is possible to tell whether slow frames come from decoding, from
+ * composing reflections or from transformations. Methods are called on hot
+ * paths, some of them from background loaders, so implementations should be
+ * thread safe and cheap. {@link #NONE} ignores everything and is used by
+ * default; {@link CoverFlowMetricsRecorder} aggregates the measurements.
+ *
+ */
+public interface CoverFlowMetrics {
+
+    /** Metrics ignoring all measurements. */
+    CoverFlowMetrics NONE = new CoverFlowMetrics() {
+
+        @Override
+        public void onBitmapDecoded(final long nanos) {
+            // ignored
+        }
+
+        @Override
+        public void onReflectionComposed(final long nanos) {
+            // ignored
+        }
+
+        @Override
+        public void onCacheLookup(final boolean hit) {
+            // ignored
+        }
+
+        @Override
+        public void onResidentBytesChanged(final long delta) {
+            // ignored
+        }
+
+        @Override
+        public void onFrameDrawn(final int transforms, final int droppedFrames) {
+            // ignored
+        }
+
+        @Override
+        public void onFirstCoverDrawn(final long nanos) {
+            // ignored
+        }
+
+        @Override
+        public void onFullyPopulated(final long nanos) {
+            // ignored
+        }
+    };
+
+    /**
+     * Called when an adapter has decoded an image.
+     *
+     * @param nanos
+     *            time spent decoding
+     */
+    void onBitmapDecoded(long nanos);
+
+    /**
+     * Called when a reflection has been composed for an image.
+     *
+     * @param nanos
+     *            time spent composing
+     */
+    void onReflectionComposed(long nanos);
+
+    /**
+     * Called when an adapter has looked up a bitmap in its memory cache.
+     *
+     * @param hit
+     *            whether the bitmap was cached
+     */
+    void onCacheLookup(boolean hit);
+
+    /**
+     * Called when bitmaps are added to or removed from adapter memory caches.
+     *
+     * @param delta
+     *            change of the number of bytes held, negative on removal
+     */
+    void onResidentBytesChanged(long delta);
+
+    /**
+     * Called after the cover flow has drawn a frame.
+     *
+     * @param transforms
+     *            number of child transformations computed for the frame
+     * @param droppedFrames
+     *            number of frames missed since the previous frame while the
+     *            covers were moving
+     */
+    void onFrameDrawn(int transforms, int droppedFrames);
+
+    /**
+     * Called when the cover flow has drawn the first frame showing the
+     * selected cover, at any resolution, after an adapter was set.
+     *
+     * @param nanos
+     *            time since the adapter was set
+     */
+    void onFirstCoverDrawn(long nanos);
+
+    /**
+     * Called when the cover flow has drawn the first frame showing all
+     * visible covers at full resolution after an adapter was set.
+     *
+     * @param nanos
+     *            time since the adapter was set
+     */
+    void onFullyPopulated(long nanos);
+}
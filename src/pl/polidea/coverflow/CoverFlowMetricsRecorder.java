@@ -0,0 +1,239 @@
+package pl.polidea.coverflow;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics aggregating measurements in counters and latency histograms. The
+ * histograms have power of two millisecond buckets: bucket 0 counts
+ * latencies below 1 ms, bucket n those from 2^(n-1) to 2^n ms, and the last
+ * bucket everything longer. Recording does not lock.
+ *
+ */
+public class CoverFlowMetricsRecorder implements CoverFlowMetrics {
+
+    /** The Constant HISTOGRAM_BUCKETS. */
+    public static final int HISTOGRAM_BUCKETS = 12;
+
+    /** The Constant NANOS_PER_MILLI. */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** The decode histogram. */
+    private final AtomicLongArray decodeHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    /** The reflection histogram. */
+    private final AtomicLongArray reflectionHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    /** The hit count. */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** The miss count. */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /** The resident bytes. */
+    private final AtomicLong residentBytes = new AtomicLong();
+
+    /** The frame count. */
+    private final AtomicLong frameCount = new AtomicLong();
+
+    /** The transform count. */
+    private final AtomicLong transformCount = new AtomicLong();
+
+    /** The dropped frame count. */
+    private final AtomicLong droppedFrameCount = new AtomicLong();
+
+    /** Time to the first cover of the last startup, -1 until drawn. */
+    private final AtomicLong firstCoverNanos = new AtomicLong(-1);
+
+    /** Time to fully populated of the last startup, -1 until populated. */
+    private final AtomicLong fullyPopulatedNanos = new AtomicLong(-1);
+
+    @Override
+    public void onBitmapDecoded(final long nanos) {
+        decodeHistogram.incrementAndGet(getBucket(nanos));
+    }
+
+    @Override
+    public void onReflectionComposed(final long nanos) {
+        reflectionHistogram.incrementAndGet(getBucket(nanos));
+    }
+
+    @Override
+    public void onCacheLookup(final boolean hit) {
+        if (hit) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onResidentBytesChanged(final long delta) {
+        residentBytes.addAndGet(delta);
+    }
+
+    @Override
+    public void onFrameDrawn(final int transforms, final int droppedFrames) {
+        frameCount.incrementAndGet();
+        transformCount.addAndGet(transforms);
+        if (droppedFrames > 0) {
+            droppedFrameCount.addAndGet(droppedFrames);
+        }
+    }
+
+    @Override
+    public void onFirstCoverDrawn(final long nanos) {
+        firstCoverNanos.set(nanos);
+    }
+
+    @Override
+    public void onFullyPopulated(final long nanos) {
+        fullyPopulatedNanos.set(nanos);
+    }
+
+    /**
+     * Gets the histogram bucket of the latency.
+     *
+     * @param nanos
+     *            the latency
+     * @return the bucket
+     */
+    private static int getBucket(final long nanos) {
+        long millis = nanos / NANOS_PER_MILLI;
+        int bucket = 0;
+        while (millis > 0 && bucket < HISTOGRAM_BUCKETS - 1) {
+            millis >>= 1;
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * Gets the decode latency histogram.
+     *
+     * @return copy of the histogram
+     */
+    public long[] getDecodeHistogram() {
+        return copy(decodeHistogram);
+    }
+
+    /**
+     * Gets the reflection composing latency histogram.
+     *
+     * @return copy of the histogram
+     */
+    public long[] getReflectionHistogram() {
+        return copy(reflectionHistogram);
+    }
+
+    /**
+     * Copies the histogram.
+     *
+     * @param histogram
+     *            the histogram
+     * @return the copy
+     */
+    private static long[] copy(final AtomicLongArray histogram) {
+        final long[] result = new long[histogram.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = histogram.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the cache hit ratio.
+     *
+     * @return ratio of lookups that hit, 0 if there were none
+     */
+    public double getHitRatio() {
+        final long hits = hitCount.get();
+        final long lookups = hits + missCount.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Gets the number of bytes of bitmaps held in adapter caches.
+     *
+     * @return the resident bytes
+     */
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    /**
+     * Gets the frame count.
+     *
+     * @return the number of frames drawn
+     */
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    /**
+     * Gets the average number of transformations per frame.
+     *
+     * @return the transforms per frame
+     */
+    public double getTransformsPerFrame() {
+        final long frames = frameCount.get();
+        return frames == 0 ? 0 : (double) transformCount.get() / frames;
+    }
+
+    /**
+     * Gets the dropped frame count.
+     *
+     * @return the number of frames missed while covers were moving
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrameCount.get();
+    }
+
+    /**
+     * Gets the time from setting the adapter to drawing the selected cover,
+     * for the last adapter set.
+     *
+     * @return the time in milliseconds, -1 if not drawn yet
+     */
+    public long getTimeToFirstCover() {
+        final long nanos = firstCoverNanos.get();
+        return nanos < 0 ? -1 : nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Gets the time from setting the adapter to drawing all visible covers
+     * at full resolution, for the last adapter set.
+     *
+     * @return the time in milliseconds, -1 if not populated yet
+     */
+    public long getTimeToFullyPopulated() {
+        final long nanos = fullyPopulatedNanos.get();
+        return nanos < 0 ? -1 : nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Resets all counters except resident bytes, which track bitmaps still
+     * held, and startup times.
+     */
+    public void reset() {
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            decodeHistogram.set(i, 0);
+            reflectionHistogram.set(i, 0);
+        }
+        hitCount.set(0);
+        missCount.set(0);
+        frameCount.set(0);
+        transformCount.set(0);
+        droppedFrameCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CoverFlowMetrics[hitRatio=%.2f,residentBytes=%d,frames=%d,transformsPerFrame=%.1f,"
+                + "droppedFrames=%d,timeToFirstCover=%d,timeToFullyPopulated=%d,decodeHistogram=%s,"
+                + "reflectionHistogram=%s]", getHitRatio(), getResidentBytes(), getFrameCount(),
+                getTransformsPerFrame(), getDroppedFrameCount(), getTimeToFirstCover(), getTimeToFullyPopulated(),
+                Arrays.toString(getDecodeHistogram()), Arrays.toString(getReflectionHistogram()));
+    }
+}
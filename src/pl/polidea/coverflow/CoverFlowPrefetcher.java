@@ -0,0 +1,183 @@
+package pl.polidea.coverflow;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import android.os.SystemClock;
+
+/**
+ * Warms the adapter's bitmap cache for the positions the cover flow is moving
+ * towards. The number of positions prefetched grows with the fling velocity
+ * and pending prefetches are cancelled when the direction changes.
+ *
+ */
+final class CoverFlowPrefetcher {
+
+    /** Positions prefetched on each side when not moving. */
+    private static final int MIN_PREFETCH_COUNT = 2;
+
+    /** The Constant MAX_PREFETCH_COUNT. */
+    private static final int MAX_PREFETCH_COUNT = 16;
+
+    /** Fling velocity (pixels per second) adding one prefetched position. */
+    private static final float VELOCITY_PER_POSITION = 500f;
+
+    /** Time after which the fling velocity is halved. */
+    private static final long VELOCITY_HALF_LIFE_MILLIS = 250;
+
+    /** The pending requests. */
+    private final List<AsyncBitmapLoader.LoadRequest> pending = new ArrayList<AsyncBitmapLoader.LoadRequest>();
+
+    /** Direction of travel: 1 towards higher positions, -1 towards lower. */
+    private int direction;
+
+    /** The fling velocity, pixels per second. */
+    private float flingVelocity;
+
+    /** The fling time. */
+    private long flingTime;
+
+    /**
+     * Records the fling started by the user.
+     *
+     * @param velocityX
+     *            velocity of the fling as reported by gesture detector
+     */
+    void onFling(final float velocityX) {
+        flingVelocity = Math.abs(velocityX);
+        flingTime = SystemClock.uptimeMillis();
+        // content moving left brings higher positions
+        changeDirection(velocityX < 0 ? 1 : -1);
+    }
+
+    /**
+     * Prefetches positions ahead of the new selection.
+     *
+     * @param adapter
+     *            the adapter
+     * @param previousPosition
+     *            previously selected position
+     * @param position
+     *            selected position
+     */
+    void onSelectionChanged(final AbstractCoverFlowImageAdapter adapter, final int previousPosition,
+            final int position) {
+        if (previousPosition >= 0 && position != previousPosition) {
+            changeDirection(position > previousPosition ? 1 : -1);
+        }
+        final int count = getPrefetchCount();
+        pruneRequests(position, count);
+        if (direction >= 0) {
+            prefetchRange(adapter, position, count, 1);
+        }
+        if (direction <= 0) {
+            prefetchRange(adapter, position, count, -1);
+        }
+    }
+
+    /**
+     * Cancels all pending prefetches.
+     */
+    void cancelAll() {
+        for (final AsyncBitmapLoader.LoadRequest request : pending) {
+            request.cancel();
+        }
+        pending.clear();
+    }
+
+    /**
+     * Changes the direction of travel, cancelling prefetches for the old
+     * one.
+     *
+     * @param newDirection
+     *            the new direction
+     */
+    private void changeDirection(final int newDirection) {
+        if (newDirection != direction) {
+            cancelAll();
+            direction = newDirection;
+        }
+    }
+
+    /**
+     * Gets the number of positions to prefetch for the current velocity.
+     *
+     * @return the prefetch count
+     */
+    private int getPrefetchCount() {
+        if (flingVelocity == 0) {
+            return MIN_PREFETCH_COUNT;
+        }
+        final long elapsed = SystemClock.uptimeMillis() - flingTime;
+        final float velocity = (float) (flingVelocity * Math.pow(0.5, (double) elapsed / VELOCITY_HALF_LIFE_MILLIS));
+        if (velocity < VELOCITY_PER_POSITION) {
+            flingVelocity = 0;
+        }
+        return Math.min(MAX_PREFETCH_COUNT, MIN_PREFETCH_COUNT + (int) (velocity / VELOCITY_PER_POSITION));
+    }
+
+    /**
+     * Drops finished requests and cancels those out of the prefetch window.
+     *
+     * @param position
+     *            selected position
+     * @param count
+     *            the prefetch count
+     */
+    private void pruneRequests(final int position, final int count) {
+        final Iterator<AsyncBitmapLoader.LoadRequest> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            final AsyncBitmapLoader.LoadRequest request = iterator.next();
+            final int offset = (request.getPosition() - position) * (direction == 0 ? 1 : direction);
+            final boolean useful = direction == 0 ? Math.abs(offset) <= count : offset > 0 && offset <= count;
+            if (!useful) {
+                request.cancel();
+            }
+            if (!useful || request.isDone() || request.isCancelled()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Prefetches positions next to the selected one.
+     *
+     * @param adapter
+     *            the adapter
+     * @param position
+     *            selected position
+     * @param count
+     *            number of positions
+     * @param step
+     *            1 for following positions, -1 for preceding ones
+     */
+    private void prefetchRange(final AbstractCoverFlowImageAdapter adapter, final int position, final int count,
+            final int step) {
+        for (int i = 1; i <= count; i++) {
+            final int prefetchPosition = position + i * step;
+            if (!isPending(prefetchPosition)) {
+                final AsyncBitmapLoader.LoadRequest request = adapter.prefetch(prefetchPosition);
+                if (request != null) {
+                    pending.add(request);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if prefetch for the position is pending.
+     *
+     * @param position
+     *            the position
+     * @return true, if is pending
+     */
+    private boolean isPending(final int position) {
+        for (final AsyncBitmapLoader.LoadRequest request : pending) {
+            if (request.getPosition() == position) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
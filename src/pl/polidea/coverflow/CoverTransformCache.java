@@ -0,0 +1,163 @@
+package pl.polidea.coverflow;
+
+import android.graphics.Camera;
+import android.graphics.Matrix;
+
+/**
+ * Table of cover transformation matrices indexed by rotation angle. The
+ * rotation angle of a child is quantised to an integer between -maxRotation
+ * and +maxRotation, so for a fixed child size, maximum rotation and maximum
+ * zoom there are only that many distinct matrices. They are computed once with
+ * the graphics camera and then only copied.
+ *
+ */
+final class CoverTransformCache {
+
+    /**
+     * Distance of the graphics camera from the view plane: 8 inches at 72
+     * pixels per inch, the default location of android.graphics.Camera.
+     */
+    static final float CAMERA_DISTANCE = 8 * 72;
+
+    /** Graphics Camera used for computing the matrices. */
+    private final Camera camera = new Camera();
+
+    /** The matrices, index is angle + maxRotationAngle. */
+    private Matrix[] matrices = new Matrix[0];
+
+    /** Whether matrix at the index is computed. */
+    private boolean[] computed = new boolean[0];
+
+    /** The max rotation angle. */
+    private int maxRotationAngle;
+
+    /** The max zoom. */
+    private int maxZoom;
+
+    /** The child width. */
+    private int width = -1;
+
+    /** The child height. */
+    private int height = -1;
+
+    /**
+     * Sets the maximum rotation angle and zoom. Cached matrices are dropped
+     * when they change.
+     *
+     * @param maxRotationAngle
+     *            the max rotation angle
+     * @param maxZoom
+     *            the max zoom
+     */
+    void setParameters(final int maxRotationAngle, final int maxZoom) {
+        if (maxRotationAngle != this.maxRotationAngle || maxZoom != this.maxZoom || matrices.length == 0) {
+            this.maxRotationAngle = maxRotationAngle;
+            this.maxZoom = maxZoom;
+            final int size = 2 * Math.abs(maxRotationAngle) + 1;
+            if (matrices.length != size) {
+                matrices = new Matrix[size];
+                computed = new boolean[size];
+                for (int i = 0; i < size; i++) {
+                    matrices[i] = new Matrix();
+                }
+            }
+            invalidate();
+        }
+    }
+
+    /**
+     * Drops all cached matrices.
+     */
+    void invalidate() {
+        for (int i = 0; i < computed.length; i++) {
+            computed[i] = false;
+        }
+    }
+
+    /**
+     * Copies the matrix for the angle and child size to the matrix specified.
+     * Cached matrices are dropped when the child size is different from the
+     * one they were computed for.
+     *
+     * @param rotationAngle
+     *            the rotation angle, between -maxRotationAngle and
+     *            maxRotationAngle
+     * @param childWidth
+     *            the child width
+     * @param childHeight
+     *            the child height
+     * @param imageMatrix
+     *            the matrix to set
+     */
+    void getMatrix(final int rotationAngle, final int childWidth, final int childHeight, final Matrix imageMatrix) {
+        if (childWidth != width || childHeight != height) {
+            width = childWidth;
+            height = childHeight;
+            invalidate();
+        }
+        final int index = rotationAngle + Math.abs(maxRotationAngle);
+        if (index < 0 || index >= matrices.length) {
+            computeMatrix(rotationAngle, childWidth, childHeight, imageMatrix);
+            return;
+        }
+        if (!computed[index]) {
+            computeMatrix(rotationAngle, childWidth, childHeight, matrices[index]);
+            computed[index] = true;
+        }
+        imageMatrix.set(matrices[index]);
+    }
+
+    /**
+     * Computes the matrix rotating the child by the angle passed and zooming
+     * in as the angle gets less.
+     *
+     * @param rotationAngle
+     *            the Angle by which to rotate the Bitmap
+     * @param childWidth
+     *            the child width
+     * @param childHeight
+     *            the child height
+     * @param imageMatrix
+     *            the matrix to set
+     */
+    void computeMatrix(final int rotationAngle, final int childWidth, final int childHeight,
+            final Matrix imageMatrix) {
+        camera.save();
+        camera.translate(0.0f, 0.0f, getDepth(rotationAngle));
+        camera.rotateY(rotationAngle);
+        camera.getMatrix(imageMatrix);
+        imageMatrix.preTranslate(-(childWidth / 2.0f), -(childHeight / 2.0f));
+        imageMatrix.postTranslate((childWidth / 2.0f), (childHeight / 2.0f));
+        camera.restore();
+    }
+
+    /**
+     * Computes the scale equivalent to moving the child away from the camera
+     * by the depth the matrix uses for the angle. Used when the rotation is
+     * applied through view properties, which have no depth translation.
+     *
+     * @param rotationAngle
+     *            the rotation angle
+     * @return the scale
+     */
+    float computeScale(final int rotationAngle) {
+        return CAMERA_DISTANCE / (CAMERA_DISTANCE + getDepth(rotationAngle));
+    }
+
+    /**
+     * Gets the distance the child is moved away from the camera. As the angle
+     * of the view gets less, the child is zoomed in.
+     *
+     * @param rotationAngle
+     *            the rotation angle
+     * @return the depth
+     */
+    private float getDepth(final int rotationAngle) {
+        final int rotation = Math.abs(rotationAngle);
+        float depth = 100.0f;
+        if (rotation < maxRotationAngle) {
+            depth += (float) (maxZoom + rotation * 1.5);
+        }
+        return depth;
+    }
+}
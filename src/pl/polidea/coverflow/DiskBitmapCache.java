@@ -0,0 +1,414 @@
+package pl.polidea.coverflow;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.util.Log;
+
+/**
+ * Persistent cache of finished bitmaps. Bitmaps are stored as raw pixels with
+ * a small header, so reading one is a memory-mapped copy into a new bitmap
+ * with no decoding. The directory is kept within a size budget by deleting
+ * the least recently used files. The cache is created with a version, e.g.
+ * the application version code, and files stored by another version are
+ * deleted, so that bitmaps derived from old resources do not survive an
+ * update.
+ *
+ * Files are read and written on the calling thread, so the cache should be
+ * used from background loaders.
+ *
+ */
+public class DiskBitmapCache {
+
+    /** The Constant TAG. */
+    private static final String TAG = DiskBitmapCache.class.getSimpleName();
+
+    /** The Constant MAGIC. */
+    private static final int MAGIC = 0x43465279;
+
+    /** Size of the fixed part of the header: magic, width, height, config name length. */
+    private static final int HEADER_SIZE = 16;
+
+    /** The Constant FILE_SUFFIX. */
+    private static final String FILE_SUFFIX = ".raw";
+
+    /** The Constant TEMP_SUFFIX. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Name of the file holding the version of the cached files. */
+    private static final String VERSION_FILE_NAME = "version";
+
+    /**
+     * Age after which a temporary file is considered left by an interrupted
+     * write rather than being written.
+     */
+    private static final long STALE_TEMP_FILE_AGE = 60 * 1000;
+
+    /** The directory. */
+    private final File directory;
+
+    /** The max size. */
+    private final long maxSize;
+
+    /** The version of the cached files. */
+    private final int version;
+
+    /** File sizes in access order, least recently used first. */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /** The size. */
+    private long size;
+
+    /** Whether the index is read from the directory. */
+    private boolean initialized;
+
+    /**
+     * Creates the cache. The directory is not read until first access.
+     *
+     * @param directory
+     *            directory for the files, for example a subdirectory of
+     *            Context.getCacheDir()
+     * @param maxSize
+     *            budget in bytes
+     * @param version
+     *            version of the cached files, for example the application
+     *            version code; files stored by another version are deleted
+     */
+    public DiskBitmapCache(final File directory, final long maxSize, final int version) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.version = version;
+    }
+
+    /**
+     * Reads bitmap stored under the key.
+     *
+     * @param key
+     *            the key
+     * @return the bitmap or null if it is not cached
+     */
+    public Bitmap get(final String key) {
+        final String fileName = getFileName(key);
+        synchronized (this) {
+            initialize();
+            if (index.get(fileName) == null) {
+                return null;
+            }
+        }
+        final File file = new File(directory, fileName);
+        try {
+            final Bitmap bitmap = read(file);
+            file.setLastModified(System.currentTimeMillis());
+            return bitmap;
+        } catch (final IOException e) {
+            Log.w(TAG, "Could not read cached bitmap " + file, e);
+            remove(fileName);
+            return null;
+        }
+    }
+
+    /**
+     * Stores bitmap under the key, possibly deleting least recently used
+     * files.
+     *
+     * @param key
+     *            the key
+     * @param bitmap
+     *            the bitmap
+     */
+    public void put(final String key, final Bitmap bitmap) {
+        if (bitmap.getConfig() == null) {
+            return;
+        }
+        final String fileName = getFileName(key);
+        final File file = new File(directory, fileName);
+        final File tempFile = new File(directory, fileName + TEMP_SUFFIX + Thread.currentThread().getId());
+        final long fileSize;
+        try {
+            directory.mkdirs();
+            fileSize = write(tempFile, bitmap);
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tempFile + " to " + file);
+            }
+        } catch (final IOException e) {
+            Log.w(TAG, "Could not write cached bitmap " + file, e);
+            tempFile.delete();
+            return;
+        }
+        synchronized (this) {
+            initialize();
+            final Long previous = index.put(fileName, fileSize);
+            if (previous != null) {
+                size -= previous;
+            }
+            size += fileSize;
+            trimToSize(maxSize);
+        }
+    }
+
+    /**
+     * Deletes all cached files.
+     */
+    public synchronized void clear() {
+        initialize();
+        trimToSize(0);
+    }
+
+    /**
+     * Gets the number of bytes stored.
+     *
+     * @return size in bytes
+     */
+    public synchronized long getSize() {
+        initialize();
+        return size;
+    }
+
+    /**
+     * Gets the budget of the cache.
+     *
+     * @return maximum size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Removes file from the index and deletes it.
+     *
+     * @param fileName
+     *            the file name
+     */
+    private synchronized void remove(final String fileName) {
+        final Long previous = index.remove(fileName);
+        if (previous != null) {
+            size -= previous;
+        }
+        new File(directory, fileName).delete();
+    }
+
+    /**
+     * Deletes least recently used files until the cache is not larger than
+     * the size specified.
+     *
+     * @param targetSize
+     *            size in bytes
+     */
+    private void trimToSize(final long targetSize) {
+        final Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (size > targetSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            size -= entry.getValue();
+            new File(directory, entry.getKey()).delete();
+        }
+    }
+
+    /**
+     * Reads the index from the directory on first access. Files are ordered
+     * by modification time, which is updated on every read. Files of another
+     * version are deleted.
+     */
+    private void initialize() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        final boolean versionChanged = !isVersionCurrent();
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File lhs, final File rhs) {
+                final long lhsModified = lhs.lastModified();
+                final long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : lhsModified == rhsModified ? 0 : 1;
+            }
+        });
+        final long now = System.currentTimeMillis();
+        for (final File file : files) {
+            final String name = file.getName();
+            if (name.equals(VERSION_FILE_NAME)) {
+                continue;
+            }
+            if (versionChanged) {
+                file.delete();
+            } else if (name.endsWith(FILE_SUFFIX)) {
+                index.put(name, file.length());
+                size += file.length();
+            } else if (!name.contains(TEMP_SUFFIX) || now - file.lastModified() > STALE_TEMP_FILE_AGE) {
+                // temporary files younger than that may still be written
+                file.delete();
+            }
+        }
+        if (versionChanged) {
+            writeVersion();
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Checks if the files in the directory were stored by the version of
+     * this cache.
+     *
+     * @return true, if the version file holds the version of this cache
+     */
+    private boolean isVersionCurrent() {
+        final File versionFile = new File(directory, VERSION_FILE_NAME);
+        if (!versionFile.exists()) {
+            return false;
+        }
+        try {
+            final DataInputStream input = new DataInputStream(new FileInputStream(versionFile));
+            try {
+                return input.readInt() == version;
+            } finally {
+                input.close();
+            }
+        } catch (final IOException e) {
+            Log.w(TAG, "Could not read version of cached bitmaps " + versionFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the version of this cache to the version file.
+     */
+    private void writeVersion() {
+        final File versionFile = new File(directory, VERSION_FILE_NAME);
+        try {
+            directory.mkdirs();
+            final DataOutputStream output = new DataOutputStream(new FileOutputStream(versionFile));
+            try {
+                output.writeInt(version);
+            } finally {
+                output.close();
+            }
+        } catch (final IOException e) {
+            Log.w(TAG, "Could not write version of cached bitmaps " + versionFile, e);
+        }
+    }
+
+    /**
+     * Writes bitmap pixels to the file through memory mapping.
+     *
+     * @param file
+     *            the file
+     * @param bitmap
+     *            the bitmap
+     * @return size of the file
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static long write(final File file, final Bitmap bitmap) throws IOException {
+        final byte[] configName = bitmap.getConfig().name().getBytes("US-ASCII");
+        final long fileSize = HEADER_SIZE + configName.length + BitmapCompat.getByteCount(bitmap);
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(fileSize);
+            final FileChannel channel = randomAccessFile.getChannel();
+            final MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, fileSize);
+            buffer.order(ByteOrder.nativeOrder());
+            buffer.putInt(MAGIC);
+            buffer.putInt(bitmap.getWidth());
+            buffer.putInt(bitmap.getHeight());
+            buffer.putInt(configName.length);
+            buffer.put(configName);
+            bitmap.copyPixelsToBuffer(buffer);
+            buffer.force();
+        } finally {
+            randomAccessFile.close();
+        }
+        return fileSize;
+    }
+
+    /**
+     * Reads bitmap pixels from memory mapped file.
+     *
+     * @param file
+     *            the file
+     * @return the bitmap
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static Bitmap read(final File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a cached bitmap: " + file);
+            }
+            final int width = buffer.getInt();
+            final int height = buffer.getInt();
+            final int configNameLength = buffer.getInt();
+            if (width <= 0 || height <= 0 || configNameLength <= 0 || configNameLength > buffer.remaining()) {
+                throw new IOException("Corrupted header of cached bitmap: " + file);
+            }
+            final byte[] configName = new byte[configNameLength];
+            buffer.get(configName);
+            final Config config;
+            try {
+                config = Config.valueOf(new String(configName, "US-ASCII"));
+            } catch (final IllegalArgumentException e) {
+                throw new IOException("Unknown config of cached bitmap: " + file);
+            }
+            final Bitmap bitmap = Bitmap.createBitmap(width, height, config);
+            if (buffer.remaining() < BitmapCompat.getByteCount(bitmap)) {
+                throw new IOException("Truncated cached bitmap: " + file);
+            }
+            bitmap.copyPixelsFromBuffer(buffer);
+            return bitmap;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Gets the name of the file for the key.
+     *
+     * @param key
+     *            the key
+     * @return the file name
+     */
+    private static String getFileName(final String key) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            final byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            final StringBuilder builder = new StringBuilder(hash.length * 2 + FILE_SUFFIX.length());
+            for (final byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.append(FILE_SUFFIX).toString();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package pl.polidea.coverflow;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+/**
+ * This class is an adapter that provides images from files on local storage
+ * or content URIs. Images are decoded straight from file descriptors, so
+ * encoded files are never copied to the Java heap - only a small decoding
+ * buffer, reused by each thread, is. Image bounds are read first to pick the
+ * sample size.
+ * 
+ * Asynchronous loading is enabled by default, so files are decoded in
+ * parallel on the background loader.
+ * 
+ */
+public class FileImageAdapter extends AbstractCoverFlowImageAdapter {
+
+    /** The Constant FILE_SCHEME. */
+    private static final String FILE_SCHEME = "file";
+
+    /** The Constant DECODE_BUFFER_SIZE. */
+    private static final int DECODE_BUFFER_SIZE = 16 * 1024;
+
+    /** How many times thumbnails are smaller than pictures, in each dimension. */
+    private static final int THUMBNAIL_SCALE = 4;
+
+    /** Decoding buffers reused by each thread decoding images. */
+    private static final ThreadLocal<byte[]> DECODE_BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[DECODE_BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * The image URIs. The array is never modified, setUris replaces it with a
+     * new one, so readers need no locking.
+     */
+    private volatile Uri[] imageUris = new Uri[0];
+
+    private final Context context;
+
+    /** Whether decoded bitmaps are scaled to the exact size. */
+    private volatile boolean exactScaling;
+
+    /** Whether opaque images are decoded as RGB_565. */
+    private volatile boolean rgb565ForOpaque = true;
+
+    /**
+     * Creates the adapter with no images.
+     * 
+     * @param context
+     *            context
+     */
+    public FileImageAdapter(final Context context) {
+        super();
+        this.context = context;
+        setAsyncLoading(true);
+    }
+
+    /**
+     * Replaces images with the files specified.
+     * 
+     * @param files
+     *            the image files
+     */
+    public final void setFiles(final File[] files) {
+        final Uri[] uris = new Uri[files.length];
+        for (int i = 0; i < files.length; i++) {
+            uris[i] = Uri.fromFile(files[i]);
+        }
+        imageUris = uris;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Replaces images with those at the URIs specified, either file or
+     * content ones.
+     * 
+     * @param uris
+     *            the image URIs
+     */
+    public final void setUris(final Uri[] uris) {
+        imageUris = uris.clone();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Gets the URI of the image at the position.
+     * 
+     * @param position
+     *            the position
+     * @return the URI
+     */
+    public Uri getUri(final int position) {
+        return imageUris[position];
+    }
+
+    /**
+     * Sets whether decoded bitmaps should be scaled to fit the picture size
+     * exactly. By default they are only downsampled by a power of two, so
+     * they may be up to twice as large as displayed.
+     * 
+     * @param exactScaling
+     *            whether bitmaps should be scaled to the exact size
+     */
+    public void setExactScaling(final boolean exactScaling) {
+        this.exactScaling = exactScaling;
+    }
+
+    /**
+     * Checks if is exact scaling.
+     * 
+     * @return true, if bitmaps are scaled to the exact size
+     */
+    public boolean isExactScaling() {
+        return exactScaling;
+    }
+
+    /**
+     * Sets whether opaque (JPEG) images should be decoded as RGB_565, which
+     * takes half the memory of ARGB_8888. Enabled by default.
+     * 
+     * @param rgb565ForOpaque
+     *            whether opaque images should be decoded as RGB_565
+     */
+    public void setRgb565ForOpaque(final boolean rgb565ForOpaque) {
+        this.rgb565ForOpaque = rgb565ForOpaque;
+    }
+
+    /**
+     * Checks if is rgb565 for opaque.
+     * 
+     * @return true, if opaque images are decoded as RGB_565
+     */
+    public boolean isRgb565ForOpaque() {
+        return rgb565ForOpaque;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see android.widget.Adapter#getCount()
+     */
+    @Override
+    public int getCount() {
+        return imageUris.length;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * pl.polidea.coverflow.AbstractCoverFlowImageAdapter#getBitmapKey(int)
+     */
+    @Override
+    protected String getBitmapKey(final int position) {
+        final Uri uri = imageUris[position];
+        final StringBuilder key = new StringBuilder("uri:").append(uri);
+        if (FILE_SCHEME.equals(uri.getScheme())) {
+            // files may be replaced under the same name
+            final File file = new File(uri.getPath());
+            key.append(':').append(file.lastModified()).append(':').append(file.length());
+        }
+        return key.append(':').append((int) getWidth()).append('x').append((int) getHeight()).append(':')
+                .append(exactScaling).append(':').append(rgb565ForOpaque).toString();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see pl.polidea.coverflow.AbstractCoverFlowImageAdapter#createBitmap(int)
+     */
+    @Override
+    protected Bitmap createBitmap(final int position) {
+        return decode(position, (int) getWidth(), (int) getHeight(), exactScaling);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * pl.polidea.coverflow.AbstractCoverFlowImageAdapter#createThumbnail(int)
+     */
+    @Override
+    protected Bitmap createThumbnail(final int position) {
+        return decode(position, Math.max(1, (int) getWidth() / THUMBNAIL_SCALE),
+                Math.max(1, (int) getHeight() / THUMBNAIL_SCALE), false);
+    }
+
+    /**
+     * Decodes image at the position from its file descriptor, downsampled to
+     * the size.
+     * 
+     * @param position
+     *            the position
+     * @param targetWidth
+     *            the target width
+     * @param targetHeight
+     *            the target height
+     * @param exact
+     *            whether the bitmap should be scaled to the exact size
+     * @return the bitmap
+     */
+    private Bitmap decode(final int position, final int targetWidth, final int targetHeight, final boolean exact) {
+        final Uri uri = imageUris[position];
+        final ParcelFileDescriptor descriptor;
+        try {
+            descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+        } catch (final FileNotFoundException e) {
+            throw new IllegalStateException("Could not open " + uri + " at position " + position, e);
+        }
+        if (descriptor == null) {
+            throw new IllegalStateException("No file for " + uri + " at position " + position);
+        }
+        final SampledBitmapDecoder decoder = new SampledBitmapDecoder(targetWidth, targetHeight, exact,
+                rgb565ForOpaque, getBitmapPool());
+        final long start = System.nanoTime();
+        final Bitmap bitmap;
+        try {
+            bitmap = decoder.decode(new SampledBitmapDecoder.Source() {
+                @Override
+                public Bitmap decode(final BitmapFactory.Options options) {
+                    // the descriptor position is not changed by decoding, so
+                    // it can be decoded again after the bounds
+                    options.inTempStorage = DECODE_BUFFERS.get();
+                    return BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, options);
+                }
+            });
+        } finally {
+            try {
+                descriptor.close();
+            } catch (final IOException e) {
+                // nothing more to release
+            }
+        }
+        getMetrics().onBitmapDecoded(System.nanoTime() - start);
+        if (bitmap == null) {
+            throw new IllegalStateException("Could not decode " + uri + " at position " + position);
+        }
+        return bitmap;
+    }
+}
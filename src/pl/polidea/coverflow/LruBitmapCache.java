@@ -0,0 +1,369 @@
+package pl.polidea.coverflow;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import android.graphics.Bitmap;
+
+/**
+ * Bitmap cache with a budget in bytes. When the budget is exceeded the least
+ * recently used bitmaps are evicted first, but bitmaps for positions close to
+ * the selected one are kept as long as there is anything else to evict.
+ *
+ * Entries are kept in access order under a short lock, so eviction takes the
+ * least recently used entries from the head without sorting. The listener is
+ * notified outside the lock, so the UI thread and background loaders only
+ * wait for each other while an entry is looked up or linked.
+ *
+ */
+public class LruBitmapCache implements BitmapCache {
+
+    /** The Constant DEFAULT_PROTECTED_DISTANCE. */
+    public static final int DEFAULT_PROTECTED_DISTANCE = 2;
+
+    /** The entries in access order, least recently used first. */
+    private final LinkedHashMap<Integer, Entry> map = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+
+    /** Lock guarding the map and the counters. */
+    private final Object lock = new Object();
+
+    /** The max size. */
+    private final long maxSize;
+
+    /** The distance from selected position protected from eviction. */
+    private final int protectedDistance;
+
+    /** The size. */
+    private long size;
+
+    /** The selected position. */
+    private volatile int selectedPosition;
+
+    /** The hit count. */
+    private long hitCount;
+
+    /** The miss count. */
+    private long missCount;
+
+    /** The eviction count. */
+    private long evictionCount;
+
+    /** The listener. */
+    private volatile OnBitmapRemovedListener listener;
+
+    /**
+     * Cached bitmap with its size.
+     */
+    private static final class Entry {
+
+        /** The position. */
+        private final int position;
+
+        /** The bitmap. */
+        private final Bitmap bitmap;
+
+        /** The byte count. */
+        private final int byteCount;
+
+        /**
+         * Creates the entry.
+         *
+         * @param position
+         *            the position
+         * @param bitmap
+         *            the bitmap
+         */
+        Entry(final int position, final Bitmap bitmap) {
+            this.position = position;
+            this.bitmap = bitmap;
+            this.byteCount = BitmapCompat.getByteCount(bitmap);
+        }
+    }
+
+    /**
+     * Creates cache with default protected distance.
+     *
+     * @param maxSize
+     *            budget in bytes
+     */
+    public LruBitmapCache(final long maxSize) {
+        this(maxSize, DEFAULT_PROTECTED_DISTANCE);
+    }
+
+    /**
+     * Creates cache.
+     *
+     * @param maxSize
+     *            budget in bytes
+     * @param protectedDistance
+     *            positions at most that far from the selected one are evicted
+     *            only when nothing else can be
+     */
+    public LruBitmapCache(final long maxSize, final int protectedDistance) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        this.protectedDistance = protectedDistance;
+    }
+
+    @Override
+    public Bitmap get(final int position) {
+        synchronized (lock) {
+            final Entry entry = map.get(position);
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            return entry.bitmap;
+        }
+    }
+
+    @Override
+    public Bitmap getAndRetain(final int position, final BitmapPool bitmapPool) {
+        synchronized (lock) {
+            final Bitmap bitmap = get(position);
+            if (bitmap != null) {
+                bitmapPool.retain(bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    @Override
+    public boolean contains(final int position) {
+        synchronized (lock) {
+            return map.containsKey(position);
+        }
+    }
+
+    @Override
+    public void put(final int position, final Bitmap bitmap) {
+        if (bitmap == null) {
+            throw new NullPointerException("bitmap == null");
+        }
+        final Entry entry = new Entry(position, bitmap);
+        List<Entry> removed = null;
+        synchronized (lock) {
+            final Entry previous = map.put(position, entry);
+            size += entry.byteCount;
+            if (previous != null) {
+                // notified even when it is the same bitmap, as every put is
+                // matched by one removal
+                size -= previous.byteCount;
+                removed = new ArrayList<Entry>();
+                removed.add(previous);
+            }
+            if (size > maxSize) {
+                removed = evict(maxSize, removed);
+            }
+        }
+        notifyRemoved(removed);
+    }
+
+    @Override
+    public void remove(final int position) {
+        final Entry previous;
+        synchronized (lock) {
+            previous = map.remove(position);
+            if (previous == null) {
+                return;
+            }
+            size -= previous.byteCount;
+        }
+        notifyRemoved(previous);
+    }
+
+    @Override
+    public void clear() {
+        final List<Entry> removed;
+        synchronized (lock) {
+            removed = new ArrayList<Entry>(map.values());
+            map.clear();
+            size = 0;
+        }
+        notifyRemoved(removed);
+    }
+
+    @Override
+    public void removeOutside(final int first, final int last) {
+        final List<Entry> removed = new ArrayList<Entry>();
+        synchronized (lock) {
+            for (final Iterator<Entry> iterator = map.values().iterator(); iterator.hasNext();) {
+                final Entry entry = iterator.next();
+                if (entry.position < first || entry.position > last) {
+                    iterator.remove();
+                    size -= entry.byteCount;
+                    removed.add(entry);
+                }
+            }
+        }
+        notifyRemoved(removed);
+    }
+
+    @Override
+    public void remap(final int[] newPositions) {
+        final List<Entry> removed = new ArrayList<Entry>();
+        synchronized (lock) {
+            final List<Entry> moved = new ArrayList<Entry>();
+            for (final Iterator<Entry> iterator = map.values().iterator(); iterator.hasNext();) {
+                final Entry entry = iterator.next();
+                final int newPosition = entry.position < newPositions.length ? newPositions[entry.position] : -1;
+                if (newPosition != entry.position) {
+                    iterator.remove();
+                    if (newPosition < 0) {
+                        size -= entry.byteCount;
+                        removed.add(entry);
+                    } else {
+                        moved.add(entry);
+                    }
+                }
+            }
+            // moved entries are put back only once all of them are out of
+            // the way, as they may swap positions; they become the most
+            // recently used ones, keeping their order among themselves
+            for (final Entry entry : moved) {
+                final int newPosition = newPositions[entry.position];
+                final Entry overwritten = map.put(newPosition, new Entry(newPosition, entry.bitmap));
+                if (overwritten != null) {
+                    size -= overwritten.byteCount;
+                    removed.add(overwritten);
+                }
+            }
+        }
+        notifyRemoved(removed);
+    }
+
+    @Override
+    public void setOnBitmapRemovedListener(final OnBitmapRemovedListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Notifies the listener about bitmap that left the cache.
+     *
+     * @param entry
+     *            the entry removed
+     */
+    private void notifyRemoved(final Entry entry) {
+        final OnBitmapRemovedListener currentListener = listener;
+        if (currentListener != null) {
+            currentListener.onBitmapRemoved(entry.position, entry.bitmap);
+        }
+    }
+
+    /**
+     * Notifies the listener about bitmaps that left the cache. Must be called
+     * without holding the lock.
+     *
+     * @param entries
+     *            the entries removed, may be null
+     */
+    private void notifyRemoved(final List<Entry> entries) {
+        if (entries == null) {
+            return;
+        }
+        for (final Entry entry : entries) {
+            notifyRemoved(entry);
+        }
+    }
+
+    @Override
+    public void setSelectedPosition(final int position) {
+        this.selectedPosition = position;
+    }
+
+    /**
+     * Evicts bitmaps until the cache is not larger than the size specified.
+     * Positions far from the selected one go first, in LRU order.
+     *
+     * @param targetSize
+     *            size in bytes
+     */
+    public void trimToSize(final long targetSize) {
+        final List<Entry> removed;
+        synchronized (lock) {
+            removed = evict(targetSize, null);
+        }
+        notifyRemoved(removed);
+    }
+
+    /**
+     * Evicts bitmaps from the least recently used one. Only the protected
+     * positions close to the selected one are skipped before an entry to
+     * evict is found, so this takes constant time per entry evicted. Must be
+     * called holding the lock.
+     *
+     * @param targetSize
+     *            size in bytes
+     * @param removed
+     *            list the evicted entries are added to, may be null
+     * @return the list of removed entries, null if none were removed
+     */
+    private List<Entry> evict(final long targetSize, final List<Entry> removed) {
+        List<Entry> result = removed;
+        final int selected = selectedPosition;
+        for (int pass = 0; pass < 2 && size > targetSize; pass++) {
+            final boolean skipProtected = pass == 0;
+            for (final Iterator<Entry> iterator = map.values().iterator(); size > targetSize
+                    && iterator.hasNext();) {
+                final Entry entry = iterator.next();
+                if (skipProtected && Math.abs(entry.position - selected) <= protectedDistance) {
+                    continue;
+                }
+                iterator.remove();
+                size -= entry.byteCount;
+                evictionCount++;
+                if (result == null) {
+                    result = new ArrayList<Entry>();
+                }
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long getSize() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getHitCount() {
+        synchronized (lock) {
+            return hitCount;
+        }
+    }
+
+    @Override
+    public long getMissCount() {
+        synchronized (lock) {
+            return missCount;
+        }
+    }
+
+    @Override
+    public long getEvictionCount() {
+        synchronized (lock) {
+            return evictionCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return String.format("LruBitmapCache[size=%d,maxSize=%d,hits=%d,misses=%d,evictions=%d]", size,
+                    maxSize, hitCount, missCount, evictionCount);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package pl.polidea.coverflow;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+
+/**
+ * Drawable of a mipmap - a downscaled copy of a full size bitmap. It reports
+ * the intrinsic size of the full size bitmap, so that the image view lays it
+ * out and scales it exactly as the bitmap it replaces.
+ *
+ */
+final class MipmapDrawable extends BitmapDrawable {
+
+    /** The mipmap level. */
+    private final int level;
+
+    /** The intrinsic width. */
+    private final int intrinsicWidth;
+
+    /** The intrinsic height. */
+    private final int intrinsicHeight;
+
+    /**
+     * Creates the drawable.
+     *
+     * @param resources
+     *            resources of the image view
+     * @param mipmap
+     *            the mipmap
+     * @param level
+     *            level of the mipmap, 1 for half size
+     * @param fullSizeBitmap
+     *            the bitmap the mipmap was created from
+     */
+    MipmapDrawable(final Resources resources, final Bitmap mipmap, final int level, final Bitmap fullSizeBitmap) {
+        super(resources, mipmap);
+        this.level = level;
+        intrinsicWidth = fullSizeBitmap.getScaledWidth(resources.getDisplayMetrics());
+        intrinsicHeight = fullSizeBitmap.getScaledHeight(resources.getDisplayMetrics());
+    }
+
+    /**
+     * Gets the mipmap level.
+     *
+     * @return the level, 1 for half size
+     */
+    int getMipmapLevel() {
+        return level;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return intrinsicWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return intrinsicHeight;
+    }
+}
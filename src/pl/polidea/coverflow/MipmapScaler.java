@@ -0,0 +1,64 @@
+package pl.polidea.coverflow;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+
+/**
+ * Creates mipmaps by halving bitmaps with bilinear filtering, which averages
+ * each 2x2 block of source pixels. Keeps its canvas between calls, so an
+ * instance must not be shared between threads.
+ *
+ */
+final class MipmapScaler {
+
+    /** The Constant HONEYCOMB. */
+    private static final int HONEYCOMB = 11;
+
+    /**
+     * The canvas, kept only from API level 11, where it can be detached from
+     * the mipmap drawn.
+     */
+    private final Canvas canvas = Build.VERSION.SDK_INT >= HONEYCOMB ? new Canvas() : null;
+
+    /** The paint. */
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** The destination rectangle. */
+    private final Rect destination = new Rect();
+
+    /**
+     * Creates copy of the bitmap at half its size, in the same config.
+     *
+     * @param source
+     *            the source bitmap
+     * @param bitmapPool
+     *            pool to take the mipmap from
+     * @return the mipmap
+     */
+    Bitmap halve(final Bitmap source, final BitmapPool bitmapPool) {
+        final int width = Math.max(1, source.getWidth() / 2);
+        final int height = Math.max(1, source.getHeight() / 2);
+        final Config config = source.getConfig() == null ? Config.ARGB_8888 : source.getConfig();
+        Bitmap mipmap = bitmapPool.get(width, height, config);
+        if (mipmap == null) {
+            mipmap = Bitmap.createBitmap(width, height, config);
+        } else {
+            mipmap.eraseColor(Color.TRANSPARENT);
+        }
+        destination.set(0, 0, width, height);
+        if (canvas == null) {
+            new Canvas(mipmap).drawBitmap(source, null, destination, paint);
+        } else {
+            canvas.setBitmap(mipmap);
+            canvas.drawBitmap(source, null, destination, paint);
+            // the mipmap may be pooled and reused once it is released
+            canvas.setBitmap(null);
+        }
+        return mipmap;
+    }
+}
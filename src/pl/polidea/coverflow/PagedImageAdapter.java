@@ -0,0 +1,342 @@
+package pl.polidea.coverflow;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * This class is an adapter for catalogues too large to be kept in memory,
+ * e.g. backed by a database. Item metadata is loaded in pages when bitmaps
+ * of the items are created, pages far from the selected position are
+ * dropped, and the item count may start as an estimate which is corrected
+ * when the end of the catalogue is reached. Memory used does not depend on
+ * the size of the catalogue then.
+ * 
+ * Pages are loaded on the thread creating the bitmap, so asynchronous
+ * loading should be enabled for catalogues that are slow to query.
+ * 
+ * @param <T>
+ *            type of item metadata
+ */
+public abstract class PagedImageAdapter<T> extends AbstractCoverFlowImageAdapter {
+
+    /** The Constant DEFAULT_PAGE_SIZE. */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    /** The Constant DEFAULT_RETAINED_PAGE_DISTANCE. */
+    public static final int DEFAULT_RETAINED_PAGE_DISTANCE = 2;
+
+    /** The page size. */
+    private final int pageSize;
+
+    /** The distance from the selected page of pages kept in memory. */
+    private volatile int retainedPageDistance = DEFAULT_RETAINED_PAGE_DISTANCE;
+
+    /** The pages loaded or being loaded, by page index. */
+    private final ConcurrentHashMap<Integer, FutureTask<List<T>>> pages =
+            new ConcurrentHashMap<Integer, FutureTask<List<T>>>();
+
+    /** The item count, -1 until estimated, changed on UI thread only. */
+    private volatile int count = -1;
+
+    /** Whether the count is exact, changed on UI thread only. */
+    private volatile boolean countExact;
+
+    /** The lock guarding the pending count. */
+    private final Object pendingCountLock = new Object();
+
+    /** Count corrected on a background thread, -1 if none is pending. */
+    private int pendingCount = -1;
+
+    /** Whether the pending count is exact. */
+    private boolean pendingCountExact;
+
+    /** Handler of the UI thread. */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Applies the count corrected on a background thread and notifies
+     * observers, so that the count only changes together with the
+     * notification, as list views require.
+     */
+    private final Runnable countChangedNotifier = new Runnable() {
+        @Override
+        public void run() {
+            final int previous = count;
+            synchronized (pendingCountLock) {
+                if (pendingCount < 0) {
+                    return;
+                }
+                count = pendingCount;
+                countExact = pendingCountExact;
+                pendingCount = -1;
+            }
+            if (count != previous) {
+                notifyDataSetChanged();
+            }
+        }
+    };
+
+    /**
+     * Creates the adapter with default page size.
+     */
+    public PagedImageAdapter() {
+        this(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Creates the adapter.
+     * 
+     * @param pageSize
+     *            number of items loaded at once
+     */
+    public PagedImageAdapter(final int pageSize) {
+        super();
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("The page size should be positive: " + pageSize);
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Gets the page size.
+     * 
+     * @return the page size
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets how many pages on each side of the page of the selected position
+     * are kept in memory.
+     * 
+     * @param retainedPageDistance
+     *            the distance in pages
+     */
+    public void setRetainedPageDistance(final int retainedPageDistance) {
+        if (retainedPageDistance < 0) {
+            throw new IllegalArgumentException("The retained page distance should not be negative: "
+                    + retainedPageDistance);
+        }
+        this.retainedPageDistance = retainedPageDistance;
+    }
+
+    /**
+     * Gets the retained page distance.
+     * 
+     * @return the distance in pages
+     */
+    public int getRetainedPageDistance() {
+        return retainedPageDistance;
+    }
+
+    /**
+     * Drops all pages and the count, to be loaded again. Should be called on
+     * UI thread when the catalogue changes.
+     */
+    public void invalidatePages() {
+        pages.clear();
+        synchronized (pendingCountLock) {
+            pendingCount = -1;
+        }
+        count = -1;
+        countExact = false;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Estimates the number of items. Called once, on UI thread, when the count
+     * is first needed, so it should be cheap - an approximation is enough.
+     * 
+     * @return the estimated count
+     */
+    protected abstract int estimateCount();
+
+    /**
+     * Loads metadata of items of one page. Called on the thread creating the
+     * bitmap. Fewer items than requested mean the end of the catalogue.
+     * 
+     * @param offset
+     *            position of the first item
+     * @param limit
+     *            maximum number of items
+     * @return the items
+     */
+    protected abstract List<T> loadPage(int offset, int limit);
+
+    /**
+     * Creates new bitmap for the item.
+     * 
+     * @param position
+     *            position
+     * @param item
+     *            metadata of the item
+     * @return Bitmap created
+     */
+    protected abstract Bitmap createBitmap(int position, T item);
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see android.widget.Adapter#getCount()
+     */
+    @Override
+    public int getCount() {
+        int current = count;
+        if (current < 0) {
+            current = Math.max(0, estimateCount());
+            count = current;
+        }
+        return current;
+    }
+
+    /**
+     * Checks if is count exact.
+     * 
+     * @return true, if the end of the catalogue was reached and the count is
+     *         exact
+     */
+    public boolean isCountExact() {
+        return countExact;
+    }
+
+    /**
+     * Gets metadata of the item, loading its page if needed.
+     * 
+     * @param position
+     *            position
+     * @return the item, or null if the catalogue ends before the position
+     */
+    public T getItemData(final int position) {
+        final List<T> page = getPage(position / pageSize);
+        final int index = position % pageSize;
+        return index < page.size() ? page.get(index) : null;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see pl.polidea.coverflow.AbstractCoverFlowImageAdapter#createBitmap(int)
+     */
+    @Override
+    protected final Bitmap createBitmap(final int position) {
+        final T item = getItemData(position);
+        if (item == null) {
+            throw new IllegalStateException("No item at position " + position + ", the catalogue has "
+                    + getCount() + " items");
+        }
+        return createBitmap(position, item);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * pl.polidea.coverflow.AbstractCoverFlowImageAdapter#setSelectedPosition
+     * (int)
+     */
+    @Override
+    public void setSelectedPosition(final int position) {
+        super.setSelectedPosition(position);
+        final int selectedPage = position / pageSize;
+        final int distance = retainedPageDistance;
+        for (final Integer pageIndex : pages.keySet()) {
+            if (Math.abs(pageIndex - selectedPage) > distance) {
+                pages.remove(pageIndex);
+            }
+        }
+    }
+
+    /**
+     * Gets the page, loading it if needed. If another thread is already
+     * loading the page, waits for it instead of loading a duplicate.
+     * 
+     * @param pageIndex
+     *            index of the page
+     * @return the items of the page
+     */
+    private List<T> getPage(final int pageIndex) {
+        FutureTask<List<T>> page = pages.get(pageIndex);
+        if (page == null) {
+            final FutureTask<List<T>> task = new FutureTask<List<T>>(new Callable<List<T>>() {
+                @Override
+                public List<T> call() {
+                    final int offset = pageIndex * pageSize;
+                    final List<T> items = loadPage(offset, pageSize);
+                    onPageLoaded(offset, items.size());
+                    return items;
+                }
+            });
+            page = pages.putIfAbsent(pageIndex, task);
+            if (page == null) {
+                page = task;
+                try {
+                    task.run();
+                } finally {
+                    if (!task.isDone() || isFailed(task)) {
+                        pages.remove(pageIndex, task);
+                    }
+                }
+            }
+        }
+        return getResult(page);
+    }
+
+    /**
+     * Checks if the task has failed.
+     * 
+     * @param task
+     *            the task, which is done
+     * @return true, if the task threw
+     */
+    private static boolean isFailed(final FutureTask< ? > task) {
+        try {
+            task.get();
+            return false;
+        } catch (final Exception e) {
+            return true;
+        }
+    }
+
+    /**
+     * Corrects the count with the page loaded: a page shorter than requested
+     * ends the catalogue, a full page past the estimated end extends it. The
+     * corrected count is applied on UI thread by
+     * {@link #countChangedNotifier}.
+     * 
+     * @param offset
+     *            position of the first item of the page
+     * @param size
+     *            number of items loaded
+     */
+    private void onPageLoaded(final int offset, final int size) {
+        final int end = offset + size;
+        final int current = getCount();
+        synchronized (pendingCountLock) {
+            final boolean pending = pendingCount >= 0;
+            final int previous = pending ? pendingCount : current;
+            final boolean previousExact = pending ? pendingCountExact : countExact;
+            if (size < pageSize) {
+                if (size == 0 && offset > 0 && previous < offset || previousExact && previous == end) {
+                    return;
+                }
+                pendingCount = end;
+                pendingCountExact = true;
+            } else if (!previousExact && end >= previous) {
+                pendingCount = end + 1;
+                pendingCountExact = false;
+            } else {
+                return;
+            }
+            if (!pending) {
+                handler.post(countChangedNotifier);
+            }
+        }
+    }
+}
@@ -0,0 +1,1307 @@
+package pl.polidea.coverflow;
+
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.HapticFeedbackConstants;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.view.animation.DecelerateInterpolator;
+import android.widget.Adapter;
+import android.widget.AdapterView;
+import android.widget.Scroller;
+import android.widget.SpinnerAdapter;
+
+/**
+ * Horizontally scrolling adapter view replacing the deprecated Gallery as the
+ * base of the cover flow. Items are laid out at fixed steps around the
+ * scroll offset, so scrolling only moves, adds and removes the visible
+ * children - the cost of a frame depends on the number of visible items and
+ * not on the adapter size. Children leaving the screen go to a recycler of
+ * fixed size, one per view type.
+ *
+ * Flings decelerate and snap to an item, as does releasing a drag. All items
+ * are expected to have the same width, which is measured on the selected
+ * item.
+ *
+ */
+public class RecyclingGallery extends AdapterView<SpinnerAdapter> implements GestureDetector.OnGestureListener {
+
+    /** Number of views kept by the recycler for each view type. */
+    public static final int DEFAULT_RECYCLER_SIZE = 4;
+
+    /** Duration of snapping to an item, in milliseconds. */
+    private static final int SNAP_DURATION = 250;
+
+    /** Moves further apart than this, in milliseconds, are not one motion. */
+    private static final int VELOCITY_RESET_TIME = 100;
+
+    /** The adapter. */
+    private SpinnerAdapter adapter;
+
+    /** The observer of adapter data. */
+    private final DataSetObserver dataSetObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            handleDataChanged();
+        }
+
+        @Override
+        public void onInvalidated() {
+            handleDataChanged();
+        }
+    };
+
+    /** The recycler. */
+    private final Recycler recycler = new Recycler(DEFAULT_RECYCLER_SIZE);
+
+    /** The scroller animating flings and snapping. */
+    private final Scroller scroller;
+
+    /** The gesture detector. */
+    private final GestureDetector gestureDetector;
+
+    /** The item count. */
+    private int itemCount;
+
+    /** The selected position. */
+    private int selectedPosition = INVALID_POSITION;
+
+    /** The position last reported to the item selected listener. */
+    private int notifiedPosition = INVALID_POSITION;
+
+    /** Adapter position of the first child. */
+    private int firstPosition;
+
+    /** The spacing between items. */
+    private int spacing;
+
+    /** Space reserved below items for what subclasses draw there. */
+    private int itemBottomMargin;
+
+    /** Measured width of items, 0 until measured. */
+    private int itemWidth;
+
+    /**
+     * The scroll offset, in pixels. Item at position p is centred when the
+     * offset is p times the item step.
+     */
+    private int scrollOffset;
+
+    /** Position restored from saved state, selected once there are items. */
+    private int restoredPosition = INVALID_POSITION;
+
+    /**
+     * Distance of the restored scroll offset from the restored position, in
+     * item steps, applied once items are measured.
+     */
+    private float restoredScrollFraction;
+
+    /** The scroll velocity in pixels per second, 0 when the items rest. */
+    private float scrollVelocity;
+
+    /** Uptime of the last move, 0 when the items rest. */
+    private long lastMoveTime;
+
+    /** The width measure spec last passed to onMeasure. */
+    private int widthMeasureSpec;
+
+    /** The height measure spec last passed to onMeasure. */
+    private int heightMeasureSpec;
+
+    /** Whether the user is dragging the items. */
+    private boolean dragging;
+
+    /** Position of the item touched, INVALID_POSITION if none was. */
+    private int downTouchPosition = INVALID_POSITION;
+
+    /** Reports selection to the listener outside of layout. */
+    private final Runnable selectionNotifier = new Runnable() {
+        @Override
+        public void run() {
+            fireSelectionChanged();
+        }
+    };
+
+    public RecyclingGallery(final Context context) {
+        this(context, null);
+    }
+
+    public RecyclingGallery(final Context context, final AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public RecyclingGallery(final Context context, final AttributeSet attrs, final int defStyle) {
+        super(context, attrs, defStyle);
+        scroller = new Scroller(context, new DecelerateInterpolator());
+        gestureDetector = new GestureDetector(context, this);
+        setFocusable(true);
+        setChildrenDrawingOrderEnabled(true);
+    }
+
+    /**
+     * Sets the spacing between items. Negative spacing makes items overlap.
+     *
+     * @param spacing
+     *            the spacing in pixels
+     */
+    public void setSpacing(final int spacing) {
+        this.spacing = spacing;
+        scrollOffset = getOffsetForPosition(selectedPosition);
+        requestLayout();
+    }
+
+    /**
+     * Reserves space below items, which subclasses may draw into, e.g. to
+     * render reflections. The space is added to the measured height and
+     * items are centred together with it.
+     *
+     * @param itemBottomMargin
+     *            the margin in pixels
+     */
+    protected void setItemBottomMargin(final int itemBottomMargin) {
+        if (itemBottomMargin != this.itemBottomMargin) {
+            this.itemBottomMargin = itemBottomMargin;
+            requestLayout();
+        }
+    }
+
+    /**
+     * Gets the spacing between items.
+     *
+     * @return the spacing in pixels
+     */
+    public int getSpacing() {
+        return spacing;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.widget.AdapterView#getAdapter()
+     */
+    @Override
+    public SpinnerAdapter getAdapter() {
+        return adapter;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.widget.AdapterView#setAdapter(android.widget.Adapter)
+     */
+    @Override
+    public void setAdapter(final SpinnerAdapter adapter) {
+        if (this.adapter != null) {
+            this.adapter.unregisterDataSetObserver(dataSetObserver);
+        }
+        scroller.forceFinished(true);
+        removeAllViewsInLayout();
+        recycler.clear();
+        this.adapter = adapter;
+        itemWidth = 0;
+        firstPosition = 0;
+        notifiedPosition = INVALID_POSITION;
+        if (adapter == null) {
+            itemCount = 0;
+        } else {
+            adapter.registerDataSetObserver(dataSetObserver);
+            itemCount = adapter.getCount();
+            recycler.setViewTypeCount(adapter.getViewTypeCount());
+        }
+        selectedPosition = itemCount > 0 ? 0 : INVALID_POSITION;
+        scrollOffset = 0;
+        requestLayout();
+        invalidate();
+        scheduleSelectionNotification();
+        restoreScrollPosition();
+    }
+
+    /**
+     * Rebinds all items after the adapter data has changed.
+     */
+    private void handleDataChanged() {
+        itemCount = adapter == null ? 0 : adapter.getCount();
+        recycleAllChildren();
+        if (itemCount == 0) {
+            selectedPosition = INVALID_POSITION;
+        } else if (selectedPosition == INVALID_POSITION) {
+            selectedPosition = 0;
+        } else if (selectedPosition >= itemCount) {
+            selectedPosition = itemCount - 1;
+        }
+        if (!dragging) {
+            scroller.forceFinished(true);
+            scrollOffset = getOffsetForPosition(selectedPosition);
+        }
+        requestLayout();
+        invalidate();
+        scheduleSelectionNotification();
+        restoreScrollPosition();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.view.View#onSaveInstanceState()
+     */
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        final SavedState state = new SavedState(super.onSaveInstanceState());
+        if (restoredPosition != INVALID_POSITION) {
+            state.position = restoredPosition;
+            state.scrollFraction = restoredScrollFraction;
+        } else {
+            state.position = selectedPosition;
+            state.scrollFraction = itemWidth == 0 || selectedPosition == INVALID_POSITION ? 0
+                    : (float) (scrollOffset - getOffsetForPosition(selectedPosition)) / getItemStep();
+        }
+        return state;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.view.View#onRestoreInstanceState(android.os.Parcelable)
+     */
+    @Override
+    protected void onRestoreInstanceState(final Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        final SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        restoredPosition = savedState.position;
+        restoredScrollFraction = savedState.scrollFraction;
+        restoreScrollPosition();
+    }
+
+    /**
+     * Selects the restored position once there are items. The restored
+     * scroll offset is applied when the items are measured, then the items
+     * snap to the nearest one.
+     */
+    private void restoreScrollPosition() {
+        if (restoredPosition == INVALID_POSITION || itemCount == 0) {
+            return;
+        }
+        final int position = Math.min(restoredPosition, itemCount - 1);
+        restoredPosition = INVALID_POSITION;
+        setSelection(position);
+        if (itemWidth > 0) {
+            applyRestoredScrollFraction();
+            layoutChildren();
+        }
+    }
+
+    /**
+     * Moves the items by the restored distance from the selected position
+     * and starts snapping them.
+     */
+    private void applyRestoredScrollFraction() {
+        if (restoredScrollFraction == 0) {
+            return;
+        }
+        scrollOffset = Math.max(0, Math.min(getMaxOffset(), scrollOffset
+                + Math.round(restoredScrollFraction * getItemStep())));
+        restoredScrollFraction = 0;
+        startScroll(getSnapOffset(scrollOffset), SNAP_DURATION);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.widget.AdapterView#setSelection(int)
+     */
+    @Override
+    public void setSelection(final int position) {
+        if (position < 0 || position >= itemCount) {
+            return;
+        }
+        scroller.forceFinished(true);
+        scrollOffset = getOffsetForPosition(position);
+        setSelectedPosition(position);
+        layoutChildren();
+        invalidate();
+        scheduleSelectionNotification();
+    }
+
+    /**
+     * Selects the item at the position, scrolling to it if animation is
+     * requested and the items are already laid out.
+     *
+     * @param position
+     *            the position
+     * @param animate
+     *            whether to scroll to the item
+     */
+    public void setSelection(final int position, final boolean animate) {
+        if (animate && itemWidth > 0 && getWidth() > 0) {
+            scrollToPosition(position);
+        } else {
+            setSelection(position);
+        }
+    }
+
+    /**
+     * Smoothly scrolls to the item at the position.
+     *
+     * @param position
+     *            the position
+     */
+    public void scrollToPosition(final int position) {
+        if (position < 0 || position >= itemCount) {
+            return;
+        }
+        startScroll(getOffsetForPosition(position), SNAP_DURATION);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.widget.AdapterView#getSelectedItemPosition()
+     */
+    @Override
+    public int getSelectedItemPosition() {
+        return selectedPosition;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.widget.AdapterView#getSelectedItemId()
+     */
+    @Override
+    public long getSelectedItemId() {
+        return adapter == null || selectedPosition == INVALID_POSITION ? INVALID_ROW_ID : adapter
+                .getItemId(selectedPosition);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.widget.AdapterView#getSelectedView()
+     */
+    @Override
+    public View getSelectedView() {
+        return getChildForPosition(selectedPosition);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.widget.AdapterView#getCount()
+     */
+    @Override
+    public int getCount() {
+        return itemCount;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.widget.AdapterView#getFirstVisiblePosition()
+     */
+    @Override
+    public int getFirstVisiblePosition() {
+        return firstPosition;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.widget.AdapterView#getLastVisiblePosition()
+     */
+    @Override
+    public int getLastVisiblePosition() {
+        return firstPosition + getChildCount() - 1;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.widget.AdapterView#getPositionForView(android.view.View)
+     */
+    @Override
+    public int getPositionForView(final View view) {
+        for (int i = 0; i < getChildCount(); i++) {
+            if (getChildAt(i) == view) {
+                return firstPosition + i;
+            }
+        }
+        return INVALID_POSITION;
+    }
+
+    /**
+     * Gets the child displaying the item at the position.
+     *
+     * @param position
+     *            the position
+     * @return the child, or null if the item is not visible
+     */
+    private View getChildForPosition(final int position) {
+        final int index = position - firstPosition;
+        if (position == INVALID_POSITION || index < 0 || index >= getChildCount()) {
+            return null;
+        }
+        return getChildAt(index);
+    }
+
+    /**
+     * Gets the distance between left edges of neighbouring items.
+     *
+     * @return the step in pixels, at least 1
+     */
+    protected int getItemStep() {
+        return Math.max(1, itemWidth + spacing);
+    }
+
+    /**
+     * Gets the scroll offset at which the item at the position is centred.
+     *
+     * @param position
+     *            the position
+     * @return the offset
+     */
+    private int getOffsetForPosition(final int position) {
+        return position <= 0 ? 0 : position * getItemStep();
+    }
+
+    /**
+     * Gets the maximum scroll offset.
+     *
+     * @return the offset at which the last item is centred
+     */
+    private int getMaxOffset() {
+        return getOffsetForPosition(itemCount - 1);
+    }
+
+    /**
+     * Gets the offset of the item closest to the offset specified.
+     *
+     * @param offset
+     *            the offset
+     * @return the offset of the nearest item
+     */
+    private int getSnapOffset(final int offset) {
+        final int step = getItemStep();
+        final int position = (offset + step / 2) / step;
+        return getOffsetForPosition(Math.max(0, Math.min(itemCount - 1, position)));
+    }
+
+    /**
+     * Gets the left edge of the item at the position for the current scroll
+     * offset.
+     *
+     * @param position
+     *            the position
+     * @return the left edge
+     */
+    private int getItemLeft(final int position) {
+        final int center = getPaddingLeft() + (getWidth() - getPaddingLeft() - getPaddingRight()) / 2;
+        return center - itemWidth / 2 + position * getItemStep() - scrollOffset;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.view.View#onMeasure(int, int)
+     */
+    @Override
+    protected void onMeasure(final int widthMeasureSpec, final int heightMeasureSpec) {
+        this.widthMeasureSpec = widthMeasureSpec;
+        this.heightMeasureSpec = heightMeasureSpec;
+        int itemHeight = 0;
+        if (selectedPosition != INVALID_POSITION) {
+            View sample = getChildForPosition(selectedPosition);
+            if (sample == null) {
+                sample = obtainView(selectedPosition);
+                measureItem(sample);
+                recycler.put(getViewType(selectedPosition), sample);
+            } else {
+                measureItem(sample);
+            }
+            itemHeight = sample.getMeasuredHeight();
+            setItemWidth(sample.getMeasuredWidth());
+        }
+        final int width = resolveSize(itemWidth + getPaddingLeft() + getPaddingRight(), widthMeasureSpec);
+        final int height = resolveSize(itemHeight + itemBottomMargin + getPaddingTop() + getPaddingBottom(),
+                heightMeasureSpec);
+        setMeasuredDimension(width, height);
+    }
+
+    /**
+     * Sets the item width, keeping the selected item centred when it changes.
+     *
+     * @param width
+     *            the width
+     */
+    private void setItemWidth(final int width) {
+        if (width != itemWidth) {
+            itemWidth = width;
+            scroller.forceFinished(true);
+            scrollOffset = getOffsetForPosition(selectedPosition);
+            if (restoredPosition == INVALID_POSITION) {
+                applyRestoredScrollFraction();
+            }
+            recycleAllChildren();
+        }
+    }
+
+    /**
+     * Measures the item view with the specs this view was measured with.
+     *
+     * @param child
+     *            the child
+     */
+    private void measureItem(final View child) {
+        final ViewGroup.LayoutParams lp = child.getLayoutParams();
+        final int childWidthSpec = getChildMeasureSpec(widthMeasureSpec, getPaddingLeft() + getPaddingRight(),
+                lp.width);
+        final int childHeightSpec = getChildMeasureSpec(heightMeasureSpec, getPaddingTop() + getPaddingBottom()
+                + itemBottomMargin, lp.height);
+        child.measure(childWidthSpec, childHeightSpec);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.widget.AdapterView#onLayout(boolean, int, int, int, int)
+     */
+    @Override
+    protected void onLayout(final boolean changed, final int l, final int t, final int r, final int b) {
+        if (changed) {
+            recycleAllChildren();
+        }
+        layoutChildren();
+    }
+
+    /**
+     * Lays out the visible items for the current scroll offset. Children that
+     * are still visible are only moved, those that went out of view are
+     * recycled and new ones are added for items that came into view.
+     */
+    private void layoutChildren() {
+        if (adapter == null || itemCount == 0 || itemWidth == 0 || getWidth() == 0) {
+            recycleAllChildren();
+            return;
+        }
+        final int selected = Math.max(0, Math.min(itemCount - 1, (scrollOffset + getItemStep() / 2)
+                / getItemStep()));
+        int first = selected;
+        while (first > 0 && getItemLeft(first - 1) + itemWidth > 0) {
+            first--;
+        }
+        int last = selected;
+        while (last < itemCount - 1 && getItemLeft(last + 1) < getWidth()) {
+            last++;
+        }
+
+        int childCount = getChildCount();
+        if (childCount > 0 && (firstPosition > last || firstPosition + childCount - 1 < first)) {
+            recycleAllChildren();
+            childCount = 0;
+        }
+        if (childCount == 0) {
+            firstPosition = first;
+        }
+        while (childCount > 0 && firstPosition < first) {
+            recycleChild(0, firstPosition);
+            firstPosition++;
+            childCount--;
+        }
+        while (childCount > 0 && firstPosition + childCount - 1 > last) {
+            recycleChild(childCount - 1, firstPosition + childCount - 1);
+            childCount--;
+        }
+        for (int i = 0; i < childCount; i++) {
+            final View child = getChildAt(i);
+            final int left = getItemLeft(firstPosition + i);
+            if (child.getLeft() != left) {
+                child.offsetLeftAndRight(left - child.getLeft());
+            }
+        }
+        while (childCount > 0 && firstPosition > first) {
+            firstPosition--;
+            addItem(firstPosition, 0);
+            childCount++;
+        }
+        for (int position = firstPosition + childCount; position <= last; position++) {
+            addItem(position, childCount++);
+        }
+        setSelectedPosition(selected);
+        onChildrenLaidOut();
+    }
+
+    /**
+     * Called after the children were laid out at the current scroll offset,
+     * i.e. whenever the items move. Does nothing by default.
+     */
+    protected void onChildrenLaidOut() {
+        // do nothing
+    }
+
+    /**
+     * Called when the child is removed and passed to the recycler, before it
+     * is rebound to another item. Does nothing by default.
+     *
+     * @param child
+     *            the child
+     */
+    protected void onChildRecycled(final View child) {
+        // do nothing
+    }
+
+    /**
+     * Creates child for the item at the position and lays it out.
+     *
+     * @param position
+     *            the position
+     * @param index
+     *            index of the child
+     */
+    private void addItem(final int position, final int index) {
+        final View child = obtainView(position);
+        addViewInLayout(child, index, child.getLayoutParams(), true);
+        measureItem(child);
+        final int left = getItemLeft(position);
+        final int top = getPaddingTop()
+                + (getHeight() - getPaddingTop() - getPaddingBottom() - itemBottomMargin - child.getMeasuredHeight())
+                / 2;
+        child.layout(left, top, left + child.getMeasuredWidth(), top + child.getMeasuredHeight());
+        child.setSelected(position == selectedPosition);
+    }
+
+    /**
+     * Gets view for the item from the adapter, passing it a recycled view.
+     *
+     * @param position
+     *            the position
+     * @return the view with layout params of this view
+     */
+    private View obtainView(final int position) {
+        final View child = adapter.getView(position, recycler.get(getViewType(position)), this);
+        final ViewGroup.LayoutParams lp = child.getLayoutParams();
+        if (lp == null) {
+            child.setLayoutParams(generateDefaultLayoutParams());
+        } else if (!checkLayoutParams(lp)) {
+            child.setLayoutParams(generateLayoutParams(lp));
+        }
+        return child;
+    }
+
+    /**
+     * Gets the view type of the item.
+     *
+     * @param position
+     *            the position
+     * @return the view type
+     */
+    private int getViewType(final int position) {
+        return adapter == null || position >= itemCount ? Adapter.IGNORE_ITEM_VIEW_TYPE : adapter
+                .getItemViewType(position);
+    }
+
+    /**
+     * Removes the child and passes it to the recycler.
+     *
+     * @param index
+     *            index of the child
+     * @param position
+     *            position of its item
+     */
+    private void recycleChild(final int index, final int position) {
+        final View child = getChildAt(index);
+        removeViewInLayout(child);
+        child.setSelected(false);
+        onChildRecycled(child);
+        recycler.put(getViewType(position), child);
+    }
+
+    /**
+     * Removes all children, passing them to the recycler.
+     */
+    private void recycleAllChildren() {
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            recycleChild(i, firstPosition + i);
+        }
+    }
+
+    /**
+     * Updates the selected position and the selected state of children.
+     * Listeners are notified once the items stop moving.
+     *
+     * @param position
+     *            the position
+     */
+    private void setSelectedPosition(final int position) {
+        if (position == selectedPosition) {
+            return;
+        }
+        final View previous = getChildForPosition(selectedPosition);
+        if (previous != null) {
+            previous.setSelected(false);
+        }
+        selectedPosition = position;
+        final View current = getChildForPosition(position);
+        if (current != null) {
+            current.setSelected(true);
+        }
+        if (!dragging && scroller.isFinished()) {
+            scheduleSelectionNotification();
+        }
+    }
+
+    /**
+     * Schedules notifying the listener about selection change.
+     */
+    private void scheduleSelectionNotification() {
+        removeCallbacks(selectionNotifier);
+        post(selectionNotifier);
+    }
+
+    /**
+     * Notifies the listener if the selection has changed since it was last
+     * notified.
+     */
+    private void fireSelectionChanged() {
+        if (selectedPosition == notifiedPosition) {
+            return;
+        }
+        notifiedPosition = selectedPosition;
+        final OnItemSelectedListener listener = getOnItemSelectedListener();
+        if (listener == null) {
+            return;
+        }
+        if (selectedPosition == INVALID_POSITION) {
+            listener.onNothingSelected(this);
+        } else {
+            listener.onItemSelected(this, getSelectedView(), selectedPosition, getSelectedItemId());
+        }
+    }
+
+    /**
+     * Moves the items to the scroll offset.
+     *
+     * @param offset
+     *            the offset, clamped to the range of items
+     */
+    private void moveTo(final int offset) {
+        final int clamped = Math.max(0, Math.min(getMaxOffset(), offset));
+        if (clamped != scrollOffset) {
+            updateScrollVelocity(clamped - scrollOffset);
+            scrollOffset = clamped;
+            onScrollVelocityChanged(scrollVelocity);
+            layoutChildren();
+            invalidate();
+        }
+    }
+
+    /**
+     * Updates the scroll velocity with the move. The first move of a motion
+     * leaves the velocity unknown, i.e. 0.
+     *
+     * @param delta
+     *            the distance moved in pixels
+     */
+    private void updateScrollVelocity(final int delta) {
+        final long now = SystemClock.uptimeMillis();
+        final long elapsed = now - lastMoveTime;
+        if (lastMoveTime == 0 || elapsed > VELOCITY_RESET_TIME) {
+            scrollVelocity = 0;
+        } else if (elapsed > 0) {
+            scrollVelocity = delta * 1000f / elapsed;
+        }
+        lastMoveTime = now;
+    }
+
+    /**
+     * Gets the scroll velocity.
+     *
+     * @return the velocity in pixels per second, positive when moving towards
+     *         the last item, 0 when the items rest
+     */
+    protected float getScrollVelocity() {
+        return scrollVelocity;
+    }
+
+    /**
+     * Called when the items move, before views are laid out at the new
+     * offset. Does nothing by default.
+     *
+     * @param velocity
+     *            the scroll velocity in pixels per second
+     */
+    protected void onScrollVelocityChanged(final float velocity) {
+        // do nothing
+    }
+
+    /**
+     * Starts scrolling to the offset.
+     *
+     * @param targetOffset
+     *            the target offset
+     * @param duration
+     *            the duration in milliseconds
+     */
+    private void startScroll(final int targetOffset, final int duration) {
+        scroller.forceFinished(true);
+        if (targetOffset == scrollOffset) {
+            onScrollFinished();
+            return;
+        }
+        scroller.startScroll(scrollOffset, 0, targetOffset - scrollOffset, 0, duration);
+        invalidate();
+    }
+
+    /**
+     * Called when the items have stopped. Subclasses overriding it must call
+     * the super implementation.
+     */
+    protected void onScrollFinished() {
+        scrollVelocity = 0;
+        lastMoveTime = 0;
+        scheduleSelectionNotification();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.view.View#computeScroll()
+     */
+    @Override
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            moveTo(scroller.getCurrX());
+            if (scroller.isFinished()) {
+                onScrollFinished();
+            } else {
+                invalidate();
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.view.ViewGroup#getChildDrawingOrder(int, int)
+     */
+    @Override
+    protected int getChildDrawingOrder(final int childCount, final int i) {
+        final int selectedIndex = selectedPosition - firstPosition;
+        if (selectedIndex < 0 || selectedIndex >= childCount || i < selectedIndex) {
+            return i;
+        }
+        // items right of the selected one are drawn from the farthest, the
+        // selected one last
+        if (i == childCount - 1) {
+            return selectedIndex;
+        }
+        return childCount - 1 - (i - selectedIndex);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.view.View#onTouchEvent(android.view.MotionEvent)
+     */
+    @Override
+    public boolean onTouchEvent(final MotionEvent event) {
+        final boolean handled = gestureDetector.onTouchEvent(event);
+        final int action = event.getAction();
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            dragging = false;
+            if (scroller.isFinished()) {
+                startScroll(getSnapOffset(scrollOffset), SNAP_DURATION);
+            }
+        }
+        return handled;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * android.view.GestureDetector.OnGestureListener#onDown(android.view.MotionEvent
+     * )
+     */
+    @Override
+    public boolean onDown(final MotionEvent e) {
+        scroller.forceFinished(true);
+        downTouchPosition = pointToPosition((int) e.getX(), (int) e.getY());
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * android.view.GestureDetector.OnGestureListener#onShowPress(android.view
+     * .MotionEvent)
+     */
+    @Override
+    public void onShowPress(final MotionEvent e) {
+        // no pressed state
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * android.view.GestureDetector.OnGestureListener#onSingleTapUp(android.view
+     * .MotionEvent)
+     */
+    @Override
+    public boolean onSingleTapUp(final MotionEvent e) {
+        if (downTouchPosition == INVALID_POSITION) {
+            return false;
+        }
+        scrollToPosition(downTouchPosition);
+        final View child = getChildForPosition(downTouchPosition);
+        if (child != null) {
+            performItemClick(child, downTouchPosition, adapter.getItemId(downTouchPosition));
+        }
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * android.view.GestureDetector.OnGestureListener#onScroll(android.view.
+     * MotionEvent, android.view.MotionEvent, float, float)
+     */
+    @Override
+    public boolean onScroll(final MotionEvent e1, final MotionEvent e2, final float distanceX, final float distanceY) {
+        if (!dragging) {
+            dragging = true;
+            final ViewParent parent = getParent();
+            if (parent != null) {
+                parent.requestDisallowInterceptTouchEvent(true);
+            }
+        }
+        moveTo(scrollOffset + (int) distanceX);
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * android.view.GestureDetector.OnGestureListener#onLongPress(android.view
+     * .MotionEvent)
+     */
+    @Override
+    public void onLongPress(final MotionEvent e) {
+        final View child = getChildForPosition(downTouchPosition);
+        final OnItemLongClickListener listener = getOnItemLongClickListener();
+        if (child != null && listener != null
+                && listener.onItemLongClick(this, child, downTouchPosition, adapter.getItemId(downTouchPosition))) {
+            performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+        }
+    }
+
+    /**
+     * Flings the items and makes them stop at an item.
+     *
+     * @param e1
+     *            the down event
+     * @param e2
+     *            the move event
+     * @param velocityX
+     *            the velocity x
+     * @param velocityY
+     *            the velocity y
+     * @return true, if handled
+     */
+    @Override
+    public boolean onFling(final MotionEvent e1, final MotionEvent e2, final float velocityX, final float velocityY) {
+        dragging = false;
+        scroller.fling(scrollOffset, 0, (int) -velocityX, 0, 0, getMaxOffset(), 0, 0);
+        final int targetOffset = getSnapOffset(scroller.getFinalX());
+        final int duration = Math.max(SNAP_DURATION, scroller.getDuration());
+        startScroll(targetOffset, duration);
+        return true;
+    }
+
+    /**
+     * Gets position of the item at the point.
+     *
+     * @param x
+     *            the x
+     * @param y
+     *            the y
+     * @return the position, or INVALID_POSITION if there is no item
+     */
+    private int pointToPosition(final int x, final int y) {
+        final View selected = getSelectedView();
+        if (selected != null && contains(selected, x, y)) {
+            return selectedPosition;
+        }
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            if (contains(getChildAt(i), x, y)) {
+                return firstPosition + i;
+            }
+        }
+        return INVALID_POSITION;
+    }
+
+    /**
+     * Checks whether the child contains the point.
+     *
+     * @param child
+     *            the child
+     * @param x
+     *            the x
+     * @param y
+     *            the y
+     * @return true, if it does
+     */
+    private static boolean contains(final View child, final int x, final int y) {
+        return x >= child.getLeft() && x < child.getRight() && y >= child.getTop() && y < child.getBottom();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.view.View#onKeyDown(int, android.view.KeyEvent)
+     */
+    @Override
+    public boolean onKeyDown(final int keyCode, final KeyEvent event) {
+        switch (keyCode) {
+        case KeyEvent.KEYCODE_DPAD_LEFT:
+            if (selectedPosition > 0) {
+                playSoundEffect(SoundEffectConstants.NAVIGATION_LEFT);
+                scrollToPosition(selectedPosition - 1);
+                return true;
+            }
+            break;
+        case KeyEvent.KEYCODE_DPAD_RIGHT:
+            if (selectedPosition != INVALID_POSITION && selectedPosition < itemCount - 1) {
+                playSoundEffect(SoundEffectConstants.NAVIGATION_RIGHT);
+                scrollToPosition(selectedPosition + 1);
+                return true;
+            }
+            break;
+        case KeyEvent.KEYCODE_DPAD_CENTER:
+        case KeyEvent.KEYCODE_ENTER:
+            final View selected = getSelectedView();
+            if (selected != null) {
+                performItemClick(selected, selectedPosition, getSelectedItemId());
+                return true;
+            }
+            break;
+        default:
+            break;
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.view.ViewGroup#checkLayoutParams(android.view.ViewGroup.
+     * LayoutParams)
+     */
+    @Override
+    protected boolean checkLayoutParams(final ViewGroup.LayoutParams p) {
+        return p instanceof LayoutParams;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.view.ViewGroup#generateLayoutParams(android.view.ViewGroup.
+     * LayoutParams)
+     */
+    @Override
+    protected ViewGroup.LayoutParams generateLayoutParams(final ViewGroup.LayoutParams p) {
+        return new LayoutParams(p);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * android.view.ViewGroup#generateLayoutParams(android.util.AttributeSet)
+     */
+    @Override
+    public ViewGroup.LayoutParams generateLayoutParams(final AttributeSet attrs) {
+        return new LayoutParams(getContext(), attrs);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see android.view.ViewGroup#generateDefaultLayoutParams()
+     */
+    @Override
+    protected ViewGroup.LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+    }
+
+    /**
+     * Layout parameters of items.
+     */
+    public static class LayoutParams extends ViewGroup.LayoutParams {
+
+        public LayoutParams(final Context c, final AttributeSet attrs) {
+            super(c, attrs);
+        }
+
+        public LayoutParams(final int w, final int h) {
+            super(w, h);
+        }
+
+        public LayoutParams(final ViewGroup.LayoutParams source) {
+            super(source);
+        }
+    }
+
+    /**
+     * State of the gallery saved across configuration changes and process
+     * recreation: the selected position and how far the items were scrolled
+     * from it.
+     */
+    static class SavedState extends BaseSavedState {
+
+        /** The creator. */
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(final Parcel source) {
+                return new SavedState(source);
+            }
+
+            @Override
+            public SavedState[] newArray(final int size) {
+                return new SavedState[size];
+            }
+        };
+
+        /** The selected position. */
+        private int position;
+
+        /** Distance of the scroll offset from the selected position, in item steps. */
+        private float scrollFraction;
+
+        /**
+         * Creates state to save.
+         *
+         * @param superState
+         *            state of the superclass
+         */
+        SavedState(final Parcelable superState) {
+            super(superState);
+        }
+
+        /**
+         * Reads the state from the parcel.
+         *
+         * @param source
+         *            the parcel
+         */
+        private SavedState(final Parcel source) {
+            super(source);
+            position = source.readInt();
+            scrollFraction = source.readFloat();
+        }
+
+        @Override
+        public void writeToParcel(final Parcel dest, final int flags) {
+            super.writeToParcel(dest, flags);
+            dest.writeInt(position);
+            dest.writeFloat(scrollFraction);
+        }
+    }
+
+    /**
+     * Views removed from the layout, kept for reuse. Holds at most a fixed
+     * number of views of each type; more are left to garbage collection.
+     */
+    private static final class Recycler {
+
+        /** Number of views kept for each type. */
+        private final int capacity;
+
+        /** The views, by type. */
+        private View[][] scrap = new View[1][];
+
+        /** Number of views kept, by type. */
+        private int[] counts = new int[1];
+
+        /**
+         * Creates the recycler.
+         *
+         * @param capacity
+         *            number of views kept for each type
+         */
+        Recycler(final int capacity) {
+            this.capacity = capacity;
+            scrap[0] = new View[capacity];
+        }
+
+        /**
+         * Sets the number of view types, dropping all views kept.
+         *
+         * @param viewTypeCount
+         *            the view type count
+         */
+        void setViewTypeCount(final int viewTypeCount) {
+            final int count = Math.max(1, viewTypeCount);
+            scrap = new View[count][capacity];
+            counts = new int[count];
+        }
+
+        /**
+         * Takes view of the type.
+         *
+         * @param viewType
+         *            the view type
+         * @return the view, or null if none is kept
+         */
+        View get(final int viewType) {
+            if (viewType < 0 || viewType >= counts.length || counts[viewType] == 0) {
+                return null;
+            }
+            final int index = --counts[viewType];
+            final View view = scrap[viewType][index];
+            scrap[viewType][index] = null;
+            return view;
+        }
+
+        /**
+         * Keeps the view for reuse if there is room for it.
+         *
+         * @param viewType
+         *            the view type
+         * @param view
+         *            the view
+         */
+        void put(final int viewType, final View view) {
+            if (viewType >= 0 && viewType < counts.length && counts[viewType] < capacity) {
+                scrap[viewType][counts[viewType]++] = view;
+            }
+        }
+
+        /**
+         * Drops all views kept.
+         */
+        void clear() {
+            for (int type = 0; type < counts.length; type++) {
+                for (int i = 0; i < counts[type]; i++) {
+                    scrap[type][i] = null;
+                }
+                counts[type] = 0;
+            }
+        }
+    }
+}
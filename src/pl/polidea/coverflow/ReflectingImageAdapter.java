@@ -1,15 +1,7 @@
 package pl.polidea.coverflow;
 
-import android.R.color;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.Canvas;
-import android.graphics.LinearGradient;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.PorterDuff.Mode;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.Shader.TileMode;
+import android.os.Looper;
 
 /**
  * This adapter provides reflected images from linked adapter.
@@ -29,6 +21,17 @@ public class ReflectingImageAdapter extends AbstractCoverFlowImageAdapter {
     /** The image reflection ratio. */
     private float imageReflectionRatio;
 
+    /** The disk cache of reflected images. */
+    private DiskBitmapCache diskCache;
+
+    /** Compositors reused by each thread creating reflections. */
+    private final ThreadLocal<ReflectionCompositor> compositors = new ThreadLocal<ReflectionCompositor>() {
+        @Override
+        protected ReflectionCompositor initialValue() {
+            return new ReflectionCompositor();
+        }
+    };
+
     /**
      * Sets the width ratio.
      * 
@@ -48,6 +51,7 @@ public class ReflectingImageAdapter extends AbstractCoverFlowImageAdapter {
     public ReflectingImageAdapter(final AbstractCoverFlowImageAdapter linkedAdapter) {
         super();
         this.linkedAdapter = linkedAdapter;
+        linkedAdapter.setWrappingAdapter(this);
     }
 
     /**
@@ -69,6 +73,44 @@ public class ReflectingImageAdapter extends AbstractCoverFlowImageAdapter {
         return reflectionGap;
     }
 
+    /**
+     * Sets the disk cache for reflected images. Images are cached only when
+     * the linked adapter provides bitmap keys, and only when they are created
+     * on a background thread - i.e. with asynchronous loading enabled - so
+     * that no file is read or written on the UI thread.
+     * 
+     * @param diskCache
+     *            the disk cache, null to disable disk caching
+     */
+    public void setDiskCache(final DiskBitmapCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * Gets the disk cache for reflected images.
+     * 
+     * @return the disk cache
+     */
+    public DiskBitmapCache getDiskCache() {
+        return diskCache;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * pl.polidea.coverflow.AbstractCoverFlowImageAdapter#getBitmapKey(int)
+     */
+    @Override
+    protected String getBitmapKey(final int position) {
+        final String linkedKey = linkedAdapter.getBitmapKey(position);
+        if (linkedKey == null) {
+            return null;
+        }
+        return "reflection:" + reflectionGap + ":" + imageReflectionRatio + ":" + (int) getWidth() + "x"
+                + (int) getHeight() + ":" + linkedKey;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -76,7 +118,50 @@ public class ReflectingImageAdapter extends AbstractCoverFlowImageAdapter {
      */
     @Override
     protected Bitmap createBitmap(final int position) {
-        return createReflectedImages(linkedAdapter.getItem(position));
+        final DiskBitmapCache cache = Looper.myLooper() == Looper.getMainLooper() ? null : diskCache;
+        final String key = cache == null ? null : getBitmapKey(position);
+        if (key != null) {
+            final Bitmap cachedBitmap = cache.get(key);
+            if (cachedBitmap != null) {
+                return cachedBitmap;
+            }
+        }
+        final Bitmap originalImage = linkedAdapter.getItemRetained(position);
+        final BitmapPool linkedPool = linkedAdapter.getBitmapPool();
+        final Bitmap bitmap;
+        final long start = System.nanoTime();
+        try {
+            bitmap = createReflectedImages(originalImage);
+        } finally {
+            linkedPool.release(originalImage);
+        }
+        getMetrics().onReflectionComposed(System.nanoTime() - start);
+        if (key != null) {
+            cache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * pl.polidea.coverflow.AbstractCoverFlowImageAdapter#createThumbnail(int)
+     */
+    @Override
+    protected Bitmap createThumbnail(final int position) {
+        final Bitmap originalThumbnail = linkedAdapter.getThumbnailRetained(position);
+        if (originalThumbnail == null) {
+            return null;
+        }
+        final BitmapPool linkedPool = linkedAdapter.getBitmapPool();
+        try {
+            // at thumbnail size the reflection is cheap, so it is kept to
+            // avoid covers jumping when full size bitmaps are bound
+            return createReflectedImages(originalThumbnail);
+        } finally {
+            linkedPool.release(originalThumbnail);
+        }
     }
 
     /**
@@ -87,26 +172,61 @@ public class ReflectingImageAdapter extends AbstractCoverFlowImageAdapter {
      * @return true, if successful
      */
     public Bitmap createReflectedImages(final Bitmap originalImage) {
-        final int width = originalImage.getWidth();
-        final int height = originalImage.getHeight();
-        final Matrix matrix = new Matrix();
-        matrix.preScale(1, -1);
-        final Bitmap reflectionImage = Bitmap.createBitmap(originalImage, 0, (int) (height * imageReflectionRatio),
-                width, (int) (height - height * imageReflectionRatio), matrix, false);
-        final Bitmap bitmapWithReflection = Bitmap.createBitmap(width, (int) (height + height * imageReflectionRatio),
-                Config.ARGB_8888);
-        final Canvas canvas = new Canvas(bitmapWithReflection);
-        canvas.drawBitmap(originalImage, 0, 0, null);
-        final Paint deafaultPaint = new Paint();
-        deafaultPaint.setColor(color.transparent);
-        canvas.drawBitmap(reflectionImage, 0, height + reflectionGap, null);
-        final Paint paint = new Paint();
-        final LinearGradient shader = new LinearGradient(0, originalImage.getHeight(), 0,
-                bitmapWithReflection.getHeight() + reflectionGap, 0x70ffffff, 0x00ffffff, TileMode.CLAMP);
-        paint.setShader(shader);
-        paint.setXfermode(new PorterDuffXfermode(Mode.DST_IN));
-        canvas.drawRect(0, height, width, bitmapWithReflection.getHeight() + reflectionGap, paint);
-        return bitmapWithReflection;
+        return compositors.get().compose(originalImage, imageReflectionRatio, reflectionGap, getBitmapPool());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * pl.polidea.coverflow.AbstractCoverFlowImageAdapter#setSelectedPosition
+     * (int)
+     */
+    @Override
+    public void setSelectedPosition(final int position) {
+        super.setSelectedPosition(position);
+        linkedAdapter.setSelectedPosition(position);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * pl.polidea.coverflow.AbstractCoverFlowImageAdapter#getPositionGeneration
+     * ()
+     */
+    @Override
+    int getPositionGeneration() {
+        // reflections are composed from bitmaps of the linked adapter
+        return super.getPositionGeneration() + linkedAdapter.getPositionGeneration();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * pl.polidea.coverflow.AbstractCoverFlowImageAdapter#trimMemory(int,
+     * int, int)
+     */
+    @Override
+    public void trimMemory(final int trimStep, final int firstVisible, final int lastVisible) {
+        // reflections are trimmed before the source bitmaps they are
+        // composed from, which are trimmed by the same step
+        super.trimMemory(trimStep, firstVisible, lastVisible);
+        linkedAdapter.trimMemory(trimStep, firstVisible, lastVisible);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * pl.polidea.coverflow.AbstractCoverFlowImageAdapter#setMetrics(pl.polidea
+     * .coverflow.CoverFlowMetrics)
+     */
+    @Override
+    public void setMetrics(final CoverFlowMetrics metrics) {
+        super.setMetrics(metrics);
+        linkedAdapter.setMetrics(metrics);
     }
 
     /*
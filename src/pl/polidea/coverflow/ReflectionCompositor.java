@@ -0,0 +1,105 @@
+package pl.polidea.coverflow;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff.Mode;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+
+/**
+ * Composes images with their reflections. Canvas, paint and matrix are
+ * created once and reused, and the reflection is faded out with the shared
+ * {@link ReflectionMask} of its length. The flipped part of the image is drawn
+ * straight into the output, and the output bitmap is taken from the bitmap
+ * pool when possible. The canvas is detached from the output after each
+ * composition; below API level 11, where it cannot be, a new canvas is used
+ * for each output instead.
+ *
+ * Instances are not thread safe - use one per thread.
+ *
+ */
+final class ReflectionCompositor {
+
+    /** The Constant HONEYCOMB. */
+    private static final int HONEYCOMB = 11;
+
+    /** The canvas, null below API level 11. */
+    private final Canvas reusedCanvas = Build.VERSION.SDK_INT >= HONEYCOMB ? new Canvas() : null;
+
+    /** Matrix flipping the image below itself. */
+    private final Matrix flipMatrix = new Matrix();
+
+    /** Part of the image drawn as reflection. */
+    private final Rect reflectedRect = new Rect();
+
+    /** Area the mask is drawn to. */
+    private final RectF maskRect = new RectF();
+
+    /** Paint fading out the reflection. */
+    private final Paint maskPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * Creates the compositor.
+     */
+    ReflectionCompositor() {
+        maskPaint.setXfermode(new PorterDuffXfermode(Mode.DST_IN));
+    }
+
+    /**
+     * Creates bitmap with the image and its reflection below.
+     *
+     * @param originalImage
+     *            the original image
+     * @param imageReflectionRatio
+     *            height of the reflection relative to the image height
+     * @param reflectionGap
+     *            gap between the image and its reflection
+     * @param bitmapPool
+     *            pool to take the output bitmap from
+     * @return the bitmap with reflection
+     */
+    Bitmap compose(final Bitmap originalImage, final float imageReflectionRatio, final float reflectionGap,
+            final BitmapPool bitmapPool) {
+        final int width = originalImage.getWidth();
+        final int height = originalImage.getHeight();
+        final int outputHeight = (int) (height + height * imageReflectionRatio);
+        final int reflectedTop = (int) (height * imageReflectionRatio);
+        Bitmap bitmapWithReflection = bitmapPool.get(width, outputHeight, Config.ARGB_8888);
+        if (bitmapWithReflection == null) {
+            bitmapWithReflection = Bitmap.createBitmap(width, outputHeight, Config.ARGB_8888);
+        } else {
+            bitmapWithReflection.eraseColor(Color.TRANSPARENT);
+        }
+        final Canvas canvas;
+        if (reusedCanvas == null) {
+            canvas = new Canvas(bitmapWithReflection);
+        } else {
+            canvas = reusedCanvas;
+            canvas.setBitmap(bitmapWithReflection);
+        }
+        canvas.drawBitmap(originalImage, 0, 0, null);
+
+        flipMatrix.setScale(1, -1);
+        flipMatrix.postTranslate(0, 2 * height + reflectionGap);
+        reflectedRect.set(0, reflectedTop, width, reflectedTop + (int) (height - height * imageReflectionRatio));
+        final int saveCount = canvas.save();
+        canvas.concat(flipMatrix);
+        canvas.drawBitmap(originalImage, reflectedRect, reflectedRect, null);
+        canvas.restoreToCount(saveCount);
+
+        final ReflectionMask mask = ReflectionMask.obtain((int) Math.ceil(outputHeight + reflectionGap - height));
+        maskRect.set(0, height, width, height + mask.getLength());
+        canvas.drawBitmap(mask.getBitmap(), null, maskRect, maskPaint);
+        if (reusedCanvas != null) {
+            // the output is cached, pooled and reused once it is released
+            reusedCanvas.setBitmap(null);
+        }
+        return bitmapWithReflection;
+    }
+}
@@ -0,0 +1,93 @@
+package pl.polidea.coverflow;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader.TileMode;
+
+/**
+ * Alpha mask fading reflections out, baked once per reflection length into a
+ * one pixel wide ALPHA_8 bitmap and shared by all threads. Masking a
+ * reflection stretches the column over its width, which is much cheaper than
+ * rasterizing a gradient shader for every cover, and the few bytes of the
+ * mask are all the memory it takes.
+ *
+ * Masks are immutable once created.
+ *
+ */
+final class ReflectionMask {
+
+    /** Alpha of the reflection next to the image. */
+    static final int START_ALPHA = 0x70;
+
+    /** The Constant MAX_CACHED_MASKS. */
+    private static final int MAX_CACHED_MASKS = 4;
+
+    /** Masks of recently used lengths, guarded by the class lock. */
+    private static final Map<Integer, ReflectionMask> MASKS = new LinkedHashMap<Integer, ReflectionMask>(
+            MAX_CACHED_MASKS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Integer, ReflectionMask> eldest) {
+            return size() > MAX_CACHED_MASKS;
+        }
+    };
+
+    /** The mask bitmap. */
+    private final Bitmap bitmap;
+
+    /**
+     * Gets the mask of the length, creating it if it was not used recently.
+     *
+     * @param length
+     *            length of the reflection in pixels, including the gap
+     * @return the mask
+     */
+    static synchronized ReflectionMask obtain(final int length) {
+        final int maskLength = Math.max(1, length);
+        ReflectionMask mask = MASKS.get(maskLength);
+        if (mask == null) {
+            mask = new ReflectionMask(maskLength);
+            MASKS.put(maskLength, mask);
+        }
+        return mask;
+    }
+
+    /**
+     * Creates the mask.
+     *
+     * @param length
+     *            the length in pixels
+     */
+    private ReflectionMask(final int length) {
+        bitmap = Bitmap.createBitmap(1, length, Config.ALPHA_8);
+        final Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, 0, length, START_ALPHA << 24, 0, TileMode.CLAMP));
+        new Canvas(bitmap).drawRect(0, 0, 1, length, paint);
+    }
+
+    /**
+     * Gets the mask bitmap: one pixel wide, with alpha falling from
+     * {@link #START_ALPHA} at the top to 0 at the bottom.
+     *
+     * @return the bitmap
+     */
+    Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    /**
+     * Gets the length.
+     *
+     * @return the length in pixels
+     */
+    int getLength() {
+        return bitmap.getHeight();
+    }
+}
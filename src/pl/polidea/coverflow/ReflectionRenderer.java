@@ -0,0 +1,169 @@
+package pl.polidea.coverflow;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.ComposeShader;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.Shader;
+import android.graphics.Shader.TileMode;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.widget.ImageView;
+
+/**
+ * Draws reflections of image views below them at render time, from the
+ * bitmap the view displays, so that no bitmap with reflection needs to be
+ * composed and kept. The mirrored bitmap is faded with the shared
+ * {@link ReflectionMask} through a compose shader, which is created once per
+ * bitmap and kept for a few recently drawn bitmaps.
+ *
+ * Must be used on UI thread only.
+ *
+ */
+final class ReflectionRenderer {
+
+    /** First API level with hardware accelerated canvas. */
+    private static final int HONEYCOMB = 11;
+
+    /** First API level composing two bitmap shaders in hardware. */
+    private static final int JELLY_BEAN = 16;
+
+    /** The Constant MAX_CACHED_SHADERS. */
+    private static final int MAX_CACHED_SHADERS = 16;
+
+    /** Shaders of recently drawn bitmaps. */
+    private final Map<Bitmap, Shader> shaders = new LinkedHashMap<Bitmap, Shader>(MAX_CACHED_SHADERS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Bitmap, Shader> eldest) {
+            return size() > MAX_CACHED_SHADERS;
+        }
+    };
+
+    /** The paint. */
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** Matrix reused to set up shaders. */
+    private final Matrix shaderMatrix = new Matrix();
+
+    /** Point reused to map the image bottom. */
+    private final float[] point = new float[2];
+
+    /** The mask shader, shared by all compose shaders. */
+    private Shader maskShader;
+
+    /** The reflection height the mask shader was created for. */
+    private float maskShaderHeight = Float.NaN;
+
+    /** The image bottom the mask shader was created for. */
+    private int maskShaderBottom;
+
+    /**
+     * Draws reflection of the child. The canvas should be in coordinates of
+     * the parent of the child.
+     *
+     * @param canvas
+     *            the canvas
+     * @param child
+     *            the child
+     * @param childMatrix
+     *            the transformation the child is drawn with, null if none
+     * @param imageReflectionRatio
+     *            height of the reflection relative to the image height
+     * @param reflectionGap
+     *            gap between the image and its reflection
+     */
+    void draw(final Canvas canvas, final ImageView child, final Matrix childMatrix, final float imageReflectionRatio,
+            final float reflectionGap) {
+        final Drawable drawable = child.getDrawable();
+        if (!(drawable instanceof BitmapDrawable)) {
+            return;
+        }
+        final Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+        final Rect bounds = drawable.getBounds();
+        if (bitmap == null || bounds.width() <= 0 || bounds.height() <= 0) {
+            return;
+        }
+        final float reflectionHeight = bounds.height() * imageReflectionRatio;
+        if (reflectionHeight != maskShaderHeight || bounds.bottom != maskShaderBottom) {
+            maskShader = createMaskShader(canvas, bounds.bottom, reflectionHeight);
+            maskShaderHeight = reflectionHeight;
+            maskShaderBottom = bounds.bottom;
+            shaders.clear();
+        }
+        Shader shader = shaders.get(bitmap);
+        if (shader == null) {
+            final BitmapShader bitmapShader = new BitmapShader(bitmap, TileMode.CLAMP, TileMode.CLAMP);
+            shaderMatrix.setScale((float) bounds.width() / bitmap.getWidth(), (float) bounds.height()
+                    / bitmap.getHeight());
+            shaderMatrix.postTranslate(bounds.left, bounds.top);
+            bitmapShader.setLocalMatrix(shaderMatrix);
+            shader = new ComposeShader(bitmapShader, maskShader, PorterDuff.Mode.DST_IN);
+            shaders.put(bitmap, shader);
+        }
+        final Matrix imageMatrix = child.getImageMatrix();
+        point[0] = 0;
+        point[1] = bounds.bottom;
+        imageMatrix.mapPoints(point);
+        final float imageBottom = point[1] + child.getPaddingTop();
+
+        final int saveCount = canvas.save();
+        canvas.translate(child.getLeft(), child.getTop());
+        if (childMatrix != null) {
+            canvas.concat(childMatrix);
+        }
+        canvas.translate(0, 2 * imageBottom + reflectionGap);
+        canvas.scale(1, -1);
+        canvas.translate(child.getPaddingLeft(), child.getPaddingTop());
+        canvas.concat(imageMatrix);
+        paint.setShader(shader);
+        canvas.drawRect(bounds.left, bounds.bottom - reflectionHeight, bounds.right, bounds.bottom, paint);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Forgets shaders, so that bitmaps they were created for are not held.
+     */
+    void clear() {
+        shaders.clear();
+        paint.setShader(null);
+    }
+
+    /**
+     * Creates shader fading the reflection from the image bottom up, as the
+     * reflection is drawn mirrored. Hardware canvas could not compose two
+     * bitmap shaders before Jelly Bean, so a gradient is used there instead of
+     * the mask.
+     *
+     * @param canvas
+     *            the canvas drawn to
+     * @param imageBottom
+     *            the image bottom in drawable coordinates
+     * @param reflectionHeight
+     *            the reflection height in drawable coordinates
+     * @return the shader
+     */
+    private Shader createMaskShader(final Canvas canvas, final int imageBottom, final float reflectionHeight) {
+        if (Build.VERSION.SDK_INT >= HONEYCOMB && Build.VERSION.SDK_INT < JELLY_BEAN
+                && canvas.isHardwareAccelerated()) {
+            return new LinearGradient(0, imageBottom, 0, imageBottom - reflectionHeight,
+                    ReflectionMask.START_ALPHA << 24, 0, TileMode.CLAMP);
+        }
+        final ReflectionMask mask = ReflectionMask.obtain((int) Math.ceil(reflectionHeight));
+        final BitmapShader shader = new BitmapShader(mask.getBitmap(), TileMode.CLAMP, TileMode.CLAMP);
+        shaderMatrix.setScale(1, -reflectionHeight / mask.getLength());
+        shaderMatrix.postTranslate(0, imageBottom);
+        shader.setLocalMatrix(shaderMatrix);
+        return shader;
+    }
+}
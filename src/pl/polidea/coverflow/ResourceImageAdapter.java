@@ -1,42 +1,43 @@
 package pl.polidea.coverflow;
 
-import java.lang.ref.WeakReference;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedList;
 import java.util.Map;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
-import android.util.Log;
+import android.graphics.BitmapFactory;
 
 /**
- * This class is an adapter that provides images from a fixed set of resource
- * ids. Bitmaps and ImageViews are kept as weak references so that they can be
- * cleared by garbage collection when not needed.
+ * This class is an adapter that provides images from a set of resource ids.
+ * Bitmaps are kept in the adapter cache and shared with other adapters
+ * showing the same resources at the same size.
  * 
  */
 public class ResourceImageAdapter extends AbstractCoverFlowImageAdapter {
 
-    /** The Constant TAG. */
-    private static final String TAG = ResourceImageAdapter.class.getSimpleName();
-
-    /** The Constant DEFAULT_LIST_SIZE. */
-    private static final int DEFAULT_LIST_SIZE = 20;
-
-    /** The Constant IMAGE_RESOURCE_IDS. */
-    private static final List<Integer> IMAGE_RESOURCE_IDS = new ArrayList<Integer>(DEFAULT_LIST_SIZE);
-
     /** The Constant DEFAULT_RESOURCE_LIST. */
     private static final int[] DEFAULT_RESOURCE_LIST = { R.drawable.image01, R.drawable.image02, R.drawable.image03,
             R.drawable.image04, R.drawable.image05 };
 
-    /** The bitmap map. */
-    private final Map<Integer, WeakReference<Bitmap>> bitmapMap = new HashMap<Integer, WeakReference<Bitmap>>();
+    /** How many times thumbnails are smaller than pictures, in each dimension. */
+    private static final int THUMBNAIL_SCALE = 4;
+
+    /**
+     * The resource ids, which are also stable ids of the items. The array is
+     * never modified, updates replace it with a new one, so readers need no
+     * locking.
+     */
+    private volatile int[] imageResourceIds = new int[0];
 
     private final Context context;
 
+    /** Whether decoded bitmaps are scaled to the exact size. */
+    private volatile boolean exactScaling;
+
+    /** Whether opaque images are decoded as RGB_565. */
+    private volatile boolean rgb565ForOpaque = true;
+
     /**
      * Creates the adapter with default set of resource images.
      * 
@@ -50,27 +51,217 @@ public class ResourceImageAdapter extends AbstractCoverFlowImageAdapter {
     }
 
     /**
-     * Replaces resources with those specified.
+     * Sets whether decoded bitmaps should be scaled to fit the picture size
+     * exactly. By default they are only downsampled by a power of two, so
+     * they may be up to twice as large as displayed.
+     * 
+     * @param exactScaling
+     *            whether bitmaps should be scaled to the exact size
+     */
+    public void setExactScaling(final boolean exactScaling) {
+        this.exactScaling = exactScaling;
+    }
+
+    /**
+     * Checks if is exact scaling.
+     * 
+     * @return true, if bitmaps are scaled to the exact size
+     */
+    public boolean isExactScaling() {
+        return exactScaling;
+    }
+
+    /**
+     * Sets whether opaque (JPEG) images should be decoded as RGB_565, which
+     * takes half the memory of ARGB_8888. Enabled by default.
+     * 
+     * @param rgb565ForOpaque
+     *            whether opaque images should be decoded as RGB_565
+     */
+    public void setRgb565ForOpaque(final boolean rgb565ForOpaque) {
+        this.rgb565ForOpaque = rgb565ForOpaque;
+    }
+
+    /**
+     * Checks if is rgb565 for opaque.
+     * 
+     * @return true, if opaque images are decoded as RGB_565
+     */
+    public boolean isRgb565ForOpaque() {
+        return rgb565ForOpaque;
+    }
+
+    /**
+     * Replaces resources with those specified. Bitmaps of resources present
+     * before are kept and follow their resources to the new positions.
      * 
      * @param resourceIds
      *            array of ids of resources.
      */
-    public final synchronized void setResources(final int[] resourceIds) {
-        IMAGE_RESOURCE_IDS.clear();
-        for (final int resourceId : resourceIds) {
-            IMAGE_RESOURCE_IDS.add(resourceId);
+    public final void setResources(final int[] resourceIds) {
+        final int[] newIds = resourceIds.clone();
+        applyResources(newIds, diff(imageResourceIds, newIds));
+    }
+
+    /**
+     * Inserts resources at the position.
+     * 
+     * @param position
+     *            position of the first resource inserted
+     * @param resourceIds
+     *            ids of resources to insert
+     */
+    public void insertResources(final int position, final int[] resourceIds) {
+        final int[] oldIds = imageResourceIds;
+        checkRange(position, 0, oldIds.length);
+        final int[] newIds = new int[oldIds.length + resourceIds.length];
+        System.arraycopy(oldIds, 0, newIds, 0, position);
+        System.arraycopy(resourceIds, 0, newIds, position, resourceIds.length);
+        System.arraycopy(oldIds, position, newIds, position + resourceIds.length, oldIds.length - position);
+        final int[] newPositions = new int[oldIds.length];
+        for (int i = 0; i < oldIds.length; i++) {
+            newPositions[i] = i < position ? i : i + resourceIds.length;
+        }
+        applyResources(newIds, newPositions);
+    }
+
+    /**
+     * Removes resources starting at the position.
+     * 
+     * @param position
+     *            position of the first resource removed
+     * @param count
+     *            number of resources to remove
+     */
+    public void removeResources(final int position, final int count) {
+        final int[] oldIds = imageResourceIds;
+        checkRange(position, 0, oldIds.length);
+        checkRange(count, 0, oldIds.length - position);
+        final int[] newIds = new int[oldIds.length - count];
+        System.arraycopy(oldIds, 0, newIds, 0, position);
+        System.arraycopy(oldIds, position + count, newIds, position, newIds.length - position);
+        final int[] newPositions = new int[oldIds.length];
+        for (int i = 0; i < oldIds.length; i++) {
+            newPositions[i] = i < position ? i : i < position + count ? -1 : i - count;
+        }
+        applyResources(newIds, newPositions);
+    }
+
+    /**
+     * Moves resources to another position.
+     * 
+     * @param fromPosition
+     *            position of the first resource moved
+     * @param count
+     *            number of resources to move
+     * @param toPosition
+     *            position of the first resource moved after the move
+     */
+    public void moveResources(final int fromPosition, final int count, final int toPosition) {
+        final int[] oldIds = imageResourceIds;
+        checkRange(fromPosition, 0, oldIds.length);
+        checkRange(count, 0, oldIds.length - fromPosition);
+        checkRange(toPosition, 0, oldIds.length - count);
+        final int[] newIds = new int[oldIds.length];
+        final int[] newPositions = new int[oldIds.length];
+        for (int i = 0; i < oldIds.length; i++) {
+            if (i >= fromPosition && i < fromPosition + count) {
+                newPositions[i] = toPosition + i - fromPosition;
+            } else {
+                final int remainingPosition = i < fromPosition ? i : i - count;
+                newPositions[i] = remainingPosition < toPosition ? remainingPosition : remainingPosition + count;
+            }
+            newIds[newPositions[i]] = oldIds[i];
         }
+        applyResources(newIds, newPositions);
+    }
+
+    /**
+     * Checks that the value is within the range.
+     * 
+     * @param value
+     *            the value
+     * @param min
+     *            the minimum allowed
+     * @param max
+     *            the maximum allowed
+     */
+    private static void checkRange(final int value, final int min, final int max) {
+        if (value < min || value > max) {
+            throw new IndexOutOfBoundsException(value + " is not between " + min + " and " + max);
+        }
+    }
+
+    /**
+     * Replaces resources, moving cached bitmaps to the new positions of their
+     * resources, and notifies observers.
+     * 
+     * @param newIds
+     *            the new resource ids, not modified afterwards
+     * @param newPositions
+     *            new position of the resource at each old position, -1 if it
+     *            was removed
+     */
+    private void applyResources(final int[] newIds, final int[] newPositions) {
+        updatePositions(newPositions, new Runnable() {
+            @Override
+            public void run() {
+                imageResourceIds = newIds;
+            }
+        });
         notifyDataSetChanged();
     }
 
+    /**
+     * Finds the new position of each old resource. Resource ids are stable
+     * item ids; repeated ids are matched in order.
+     * 
+     * @param oldIds
+     *            the old resource ids
+     * @param newIds
+     *            the new resource ids
+     * @return new position of the resource at each old position, -1 if it is
+     *         not present anymore
+     */
+    private static int[] diff(final int[] oldIds, final int[] newIds) {
+        final Map<Integer, LinkedList<Integer>> newPositionsById = new HashMap<Integer, LinkedList<Integer>>();
+        for (int i = 0; i < newIds.length; i++) {
+            LinkedList<Integer> positions = newPositionsById.get(newIds[i]);
+            if (positions == null) {
+                positions = new LinkedList<Integer>();
+                newPositionsById.put(newIds[i], positions);
+            }
+            positions.add(i);
+        }
+        final int[] newPositions = new int[oldIds.length];
+        for (int i = 0; i < oldIds.length; i++) {
+            final LinkedList<Integer> positions = newPositionsById.get(oldIds[i]);
+            newPositions[i] = positions == null || positions.isEmpty() ? -1 : positions.removeFirst();
+        }
+        return newPositions;
+    }
+
     /*
      * (non-Javadoc)
      * 
      * @see android.widget.Adapter#getCount()
      */
     @Override
-    public synchronized int getCount() {
-        return IMAGE_RESOURCE_IDS.size();
+    public int getCount() {
+        return imageResourceIds.length;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * pl.polidea.coverflow.AbstractCoverFlowImageAdapter#getBitmapKey(int)
+     */
+    @Override
+    protected String getBitmapKey(final int position) {
+        final int resourceId = imageResourceIds[position];
+        return "resource:" + context.getResources().getResourceName(resourceId) + ":" + (int) getWidth() + "x"
+                + (int) getHeight() + ":" + exactScaling + ":" + rgb565ForOpaque;
     }
 
     /*
@@ -80,10 +271,49 @@ public class ResourceImageAdapter extends AbstractCoverFlowImageAdapter {
      */
     @Override
     protected Bitmap createBitmap(final int position) {
-        Log.v(TAG, "creating item " + position);
-        final Bitmap bitmap = ((BitmapDrawable) context.getResources().getDrawable(IMAGE_RESOURCE_IDS.get(position)))
-                .getBitmap();
-        bitmapMap.put(position, new WeakReference<Bitmap>(bitmap));
+        return decode(position, (int) getWidth(), (int) getHeight(), exactScaling);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * pl.polidea.coverflow.AbstractCoverFlowImageAdapter#createThumbnail(int)
+     */
+    @Override
+    protected Bitmap createThumbnail(final int position) {
+        return decode(position, Math.max(1, (int) getWidth() / THUMBNAIL_SCALE),
+                Math.max(1, (int) getHeight() / THUMBNAIL_SCALE), false);
+    }
+
+    /**
+     * Decodes resource at the position, downsampled to the size.
+     * 
+     * @param position
+     *            the position
+     * @param targetWidth
+     *            the target width
+     * @param targetHeight
+     *            the target height
+     * @param exact
+     *            whether the bitmap should be scaled to the exact size
+     * @return the bitmap
+     */
+    private Bitmap decode(final int position, final int targetWidth, final int targetHeight, final boolean exact) {
+        final int resourceId = imageResourceIds[position];
+        final SampledBitmapDecoder decoder = new SampledBitmapDecoder(targetWidth, targetHeight, exact,
+                rgb565ForOpaque, getBitmapPool());
+        final long start = System.nanoTime();
+        final Bitmap bitmap = decoder.decode(new SampledBitmapDecoder.Source() {
+            @Override
+            public Bitmap decode(final BitmapFactory.Options options) {
+                return BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+            }
+        });
+        getMetrics().onBitmapDecoded(System.nanoTime() - start);
+        if (bitmap == null) {
+            throw new IllegalStateException("Could not decode resource " + resourceId + " at position " + position);
+        }
         return bitmap;
     }
 }
\ No newline at end of file
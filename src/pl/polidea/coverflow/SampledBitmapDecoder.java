@@ -0,0 +1,216 @@
+package pl.polidea.coverflow;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+
+/**
+ * Decodes bitmaps downsampled to the size they are displayed at. Image bounds
+ * are read first, then the image is decoded with the largest power of two
+ * sample size that still keeps it at least as large as the target size, and
+ * optionally scaled to the exact size.
+ *
+ * Decoded bitmaps are mutable and, where the platform allows, decoded into
+ * bitmaps taken from the bitmap pool.
+ *
+ */
+final class SampledBitmapDecoder {
+
+    /** The Constant JPEG_MIME_TYPE. */
+    private static final String JPEG_MIME_TYPE = "image/jpeg";
+
+    /** First API level with BitmapFactory.Options.inBitmap. */
+    private static final int HONEYCOMB = 11;
+
+    /** First API level allowing inBitmap with sampling and larger bitmaps. */
+    private static final int KITKAT = 19;
+
+    /**
+     * Source of encoded image, which can be decoded several times.
+     */
+    interface Source {
+
+        /**
+         * Decodes the image with the options passed.
+         *
+         * @param options
+         *            the options
+         * @return decoded bitmap or null when only bounds are decoded
+         */
+        Bitmap decode(BitmapFactory.Options options);
+    }
+
+    /** The target width. */
+    private final int targetWidth;
+
+    /** The target height. */
+    private final int targetHeight;
+
+    /** Whether sampled bitmap should be scaled to the exact size. */
+    private final boolean exactScaling;
+
+    /** Whether opaque images should be decoded as RGB_565. */
+    private final boolean rgb565ForOpaque;
+
+    /** The bitmap pool. */
+    private final BitmapPool bitmapPool;
+
+    /**
+     * Creates the decoder.
+     *
+     * @param targetWidth
+     *            the target width, 0 if the image should not be downsampled
+     * @param targetHeight
+     *            the target height, 0 if the image should not be downsampled
+     * @param exactScaling
+     *            whether sampled bitmap should be scaled to fit the target size
+     *            exactly
+     * @param rgb565ForOpaque
+     *            whether opaque images should be decoded as RGB_565
+     * @param bitmapPool
+     *            pool to take bitmaps from and return intermediate ones to
+     */
+    SampledBitmapDecoder(final int targetWidth, final int targetHeight, final boolean exactScaling,
+            final boolean rgb565ForOpaque, final BitmapPool bitmapPool) {
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.exactScaling = exactScaling;
+        this.rgb565ForOpaque = rgb565ForOpaque;
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     * Decodes the image.
+     *
+     * @param source
+     *            the source
+     * @return the bitmap, or null if the image could not be decoded
+     */
+    Bitmap decode(final Source source) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+        final int imageWidth = options.outWidth;
+        final int imageHeight = options.outHeight;
+        options.inJustDecodeBounds = false;
+        options.inScaled = false;
+        if (imageWidth > 0 && imageHeight > 0) {
+            options.inSampleSize = calculateInSampleSize(imageWidth, imageHeight, targetWidth, targetHeight);
+        }
+        if (rgb565ForOpaque && JPEG_MIME_TYPE.equals(options.outMimeType)) {
+            options.inPreferredConfig = Config.RGB_565;
+        }
+        final Bitmap bitmap = decodeReusing(source, options, imageWidth, imageHeight);
+        if (bitmap == null || !exactScaling || targetWidth <= 0 || targetHeight <= 0) {
+            return bitmap;
+        }
+        return scaleToFit(bitmap);
+    }
+
+    /**
+     * Decodes the image into a pooled bitmap of the expected size if the
+     * platform supports it, falling back to a new bitmap.
+     *
+     * @param source
+     *            the source
+     * @param options
+     *            the options with sample size and config set
+     * @param imageWidth
+     *            the image width
+     * @param imageHeight
+     *            the image height
+     * @return the bitmap
+     */
+    private Bitmap decodeReusing(final Source source, final BitmapFactory.Options options, final int imageWidth,
+            final int imageHeight) {
+        if (Build.VERSION.SDK_INT < HONEYCOMB) {
+            return source.decode(options);
+        }
+        options.inMutable = true;
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        if (imageWidth <= 0 || imageHeight <= 0 || sampleSize > 1 && Build.VERSION.SDK_INT < KITKAT) {
+            return source.decode(options);
+        }
+        final Config config = options.inPreferredConfig == null ? Config.ARGB_8888 : options.inPreferredConfig;
+        final Bitmap reusable = bitmapPool.get((imageWidth + sampleSize - 1) / sampleSize,
+                (imageHeight + sampleSize - 1) / sampleSize, config);
+        if (reusable == null) {
+            return source.decode(options);
+        }
+        options.inBitmap = reusable;
+        Bitmap bitmap;
+        try {
+            bitmap = source.decode(options);
+        } catch (final IllegalArgumentException e) {
+            bitmap = null;
+        }
+        if (bitmap == null) {
+            // the decoded image does not fit the pooled bitmap
+            options.inBitmap = null;
+            bitmapPool.put(reusable);
+            bitmap = source.decode(options);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Scales the bitmap so that it fits the target size exactly in one of the
+     * dimensions. The sampled bitmap goes back to the pool.
+     *
+     * @param bitmap
+     *            the bitmap
+     * @return the scaled bitmap, or the bitmap passed if it already fits
+     */
+    private Bitmap scaleToFit(final Bitmap bitmap) {
+        final float scale = Math.min((float) targetWidth / bitmap.getWidth(), (float) targetHeight
+                / bitmap.getHeight());
+        final int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        final int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        if (width == bitmap.getWidth() && height == bitmap.getHeight()) {
+            return bitmap;
+        }
+        final Config config = bitmap.getConfig() == null ? Config.ARGB_8888 : bitmap.getConfig();
+        Bitmap scaled = bitmapPool.get(width, height, config);
+        if (scaled == null) {
+            scaled = Bitmap.createBitmap(width, height, config);
+        } else {
+            scaled.eraseColor(Color.TRANSPARENT);
+        }
+        final Canvas canvas = new Canvas(scaled);
+        canvas.drawBitmap(bitmap, null, new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+        bitmapPool.put(bitmap);
+        return scaled;
+    }
+
+    /**
+     * Calculates the largest power of two sample size that keeps the image at
+     * least as large as it is displayed when fitted into the target size.
+     *
+     * @param imageWidth
+     *            the image width
+     * @param imageHeight
+     *            the image height
+     * @param targetWidth
+     *            the target width
+     * @param targetHeight
+     *            the target height
+     * @return the sample size
+     */
+    static int calculateInSampleSize(final int imageWidth, final int imageHeight, final int targetWidth,
+            final int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return 1;
+        }
+        final float maxSample = Math.max((float) imageWidth / targetWidth, (float) imageHeight / targetHeight);
+        int sampleSize = 1;
+        while (sampleSize * 2 <= maxSample) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,239 @@
+package pl.polidea.coverflow;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import android.graphics.Bitmap;
+
+/**
+ * Process wide store of bitmaps shared by adapters, keyed by content identity
+ * and size as returned by
+ * {@link AbstractCoverFlowImageAdapter#getBitmapKey(int)}. Cover flows showing
+ * the same covers get the same bitmap, decoded once even when requested by
+ * several threads at once, and the store lets go of it when the last cache
+ * holding it releases it.
+ *
+ * Bitmaps are shared only between adapters using the same bitmap pool, as
+ * the pool reuses a bitmap once all its users released it.
+ *
+ */
+public class SharedBitmapStore {
+
+    /**
+     * Creates bitmaps missing in the store.
+     */
+    public interface Factory {
+
+        /**
+         * Creates the bitmap.
+         *
+         * @return the bitmap, null if it cannot be created
+         */
+        Bitmap create();
+    }
+
+    /** The store shared by adapters by default. */
+    private static SharedBitmapStore defaultStore;
+
+    /** Entries by key. */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /** Entries by bitmap. */
+    private final Map<Bitmap, Entry> entriesByBitmap = new IdentityHashMap<Bitmap, Entry>();
+
+    /** Bitmaps being created, by key. */
+    private final Map<String, FutureTask<Bitmap>> pending = new HashMap<String, FutureTask<Bitmap>>();
+
+    /** The hit count. */
+    private long hitCount;
+
+    /** The miss count. */
+    private long missCount;
+
+    /**
+     * Stored bitmap with the number of its users.
+     */
+    private static final class Entry {
+
+        /** The key. */
+        private final String key;
+
+        /** The bitmap. */
+        private final Bitmap bitmap;
+
+        /** The pool of the bitmap. */
+        private final BitmapPool bitmapPool;
+
+        /** The number of users. */
+        private int references = 1;
+
+        /**
+         * Creates the entry.
+         *
+         * @param key
+         *            the key
+         * @param bitmap
+         *            the bitmap
+         * @param bitmapPool
+         *            the pool of the bitmap
+         */
+        Entry(final String key, final Bitmap bitmap, final BitmapPool bitmapPool) {
+            this.key = key;
+            this.bitmap = bitmap;
+            this.bitmapPool = bitmapPool;
+        }
+    }
+
+    /**
+     * Gets the store shared by all adapters by default.
+     *
+     * @return the default store
+     */
+    public static synchronized SharedBitmapStore getDefault() {
+        if (defaultStore == null) {
+            defaultStore = new SharedBitmapStore();
+        }
+        return defaultStore;
+    }
+
+    /**
+     * Gets the bitmap stored under the key, creating it if it is not stored.
+     * If another thread is already creating it, waits for it instead of
+     * creating a duplicate. Every bitmap obtained must be released with
+     * {@link #release(Bitmap)}.
+     *
+     * @param key
+     *            the key
+     * @param bitmapPool
+     *            the pool of the caller
+     * @param factory
+     *            the factory creating the bitmap
+     * @return the bitmap, null if the factory returned null
+     */
+    public Bitmap obtain(final String key, final BitmapPool bitmapPool, final Factory factory) {
+        while (true) {
+            final FutureTask<Bitmap> task;
+            boolean creating = false;
+            synchronized (this) {
+                final Entry entry = entries.get(key);
+                if (entry != null && entry.bitmapPool == bitmapPool) {
+                    entry.references++;
+                    hitCount++;
+                    return entry.bitmap;
+                }
+                if (entry != null) {
+                    // stored for a different pool, which could reuse it
+                    task = null;
+                } else {
+                    FutureTask<Bitmap> pendingTask = pending.get(key);
+                    if (pendingTask == null) {
+                        pendingTask = new FutureTask<Bitmap>(new Callable<Bitmap>() {
+                            @Override
+                            public Bitmap call() {
+                                return factory.create();
+                            }
+                        });
+                        pending.put(key, pendingTask);
+                        missCount++;
+                        creating = true;
+                    }
+                    task = pendingTask;
+                }
+            }
+            if (task == null) {
+                return factory.create();
+            }
+            if (!creating) {
+                if (AbstractCoverFlowImageAdapter.getResult(task) == null) {
+                    return null;
+                }
+                // the bitmap is stored by now, unless already released
+                continue;
+            }
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    pending.remove(key);
+                    final Bitmap bitmap = getCreated(task);
+                    if (bitmap != null) {
+                        final Entry entry = new Entry(key, bitmap, bitmapPool);
+                        entries.put(key, entry);
+                        entriesByBitmap.put(bitmap, entry);
+                    }
+                }
+            }
+            return AbstractCoverFlowImageAdapter.getResult(task);
+        }
+    }
+
+    /**
+     * Gets the bitmap created by the task which has run.
+     *
+     * @param task
+     *            the task
+     * @return the bitmap, null if it failed or was not created
+     */
+    private static Bitmap getCreated(final FutureTask<Bitmap> task) {
+        if (!task.isDone()) {
+            return null;
+        }
+        try {
+            return task.get();
+        } catch (final Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Releases the bitmap obtained from the store. The store forgets the
+     * bitmap when all its users released it. Bitmaps not obtained from the
+     * store are ignored.
+     *
+     * @param bitmap
+     *            the bitmap
+     */
+    public synchronized void release(final Bitmap bitmap) {
+        final Entry entry = entriesByBitmap.get(bitmap);
+        if (entry != null && --entry.references == 0) {
+            entriesByBitmap.remove(bitmap);
+            entries.remove(entry.key);
+        }
+    }
+
+    /**
+     * Gets the number of bitmaps stored.
+     *
+     * @return the bitmap count
+     */
+    public synchronized int getBitmapCount() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of bitmaps obtained without creating them.
+     *
+     * @return hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of bitmaps created.
+     *
+     * @return miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("SharedBitmapStore[bitmaps=%d,hits=%d,misses=%d]", entries.size(), hitCount,
+                missCount);
+    }
+}
@@ -0,0 +1,296 @@
+package pl.polidea.coverflow.testingactivity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pl.polidea.coverflow.CoverFlow;
+import pl.polidea.coverflow.ReflectingImageAdapter;
+import pl.polidea.coverflow.ResourceImageAdapter;
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff.Mode;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Shader.TileMode;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.view.animation.Transformation;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+/**
+ * Activity running cover flow micro benchmarks on the device and displaying
+ * the results. Transformations, reflections and adapter cache paths are
+ * measured for several cover counts and sizes; results are also logged so
+ * that runs of different builds can be compared. The activity has no launcher
+ * icon; it is started with
+ * {@code adb shell am start -n pl.polidea.coverflow/.testingactivity.CoverFlowBenchmarkActivity}.
+ */
+public class CoverFlowBenchmarkActivity extends Activity {
+
+    /** The Constant TAG. */
+    private static final String TAG = CoverFlowBenchmarkActivity.class.getSimpleName();
+
+    /** The Constant COVER_WIDTH. */
+    private static final int COVER_WIDTH = 150;
+
+    /** The Constant COVER_HEIGHT. */
+    private static final int COVER_HEIGHT = 225;
+
+    /** Cover sizes benchmarked, width and height. */
+    private static final int[][] COVER_SIZES = { { 100, 150 }, { COVER_WIDTH, COVER_HEIGHT }, { 300, 450 } };
+
+    /** Numbers of children transformed on each frame. */
+    private static final int[] VISIBLE_CHILDREN = { 3, 7, 15 };
+
+    /** The Constant TRANSFORM_RUNS. */
+    private static final int TRANSFORM_RUNS = 20000;
+
+    /** The Constant REFLECTION_RUNS. */
+    private static final int REFLECTION_RUNS = 200;
+
+    /** The Constant CACHE_HIT_RUNS. */
+    private static final int CACHE_HIT_RUNS = 100000;
+
+    /** The Constant CACHE_MISS_RUNS. */
+    private static final int CACHE_MISS_RUNS = 50;
+
+    /** Warmup runs of benchmarks decoding images. */
+    private static final int DECODE_WARMUP_RUNS = 10;
+
+    /** The Constant REFLECTION_RATIO. */
+    private static final float REFLECTION_RATIO = 0.2f;
+
+    /** The Constant REFLECTION_GAP. */
+    private static final float REFLECTION_GAP = 4;
+
+    private TextView textView;
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see android.app.Activity#onCreate(android.os.Bundle)
+     */
+    @Override
+    protected void onCreate(final Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        textView = new TextView(this);
+        textView.setText("Running benchmarks...");
+        setContentView(textView);
+        textView.post(new Runnable() {
+            @Override
+            public void run() {
+                runBenchmarks();
+            }
+        });
+    }
+
+    /**
+     * Runs all benchmarks and displays the results.
+     */
+    private void runBenchmarks() {
+        final List<MicroBenchmark.Result> results = new ArrayList<MicroBenchmark.Result>();
+        for (final int[] size : COVER_SIZES) {
+            for (final int children : VISIBLE_CHILDREN) {
+                benchmarkTransformations(results, children, size[0], size[1]);
+            }
+            benchmarkReflections(results, size[0], size[1]);
+            benchmarkGetItem(results, size[0], size[1]);
+        }
+        final StringBuilder builder = new StringBuilder();
+        for (final MicroBenchmark.Result result : results) {
+            Log.i(TAG, result.toString());
+            builder.append(result).append('\n');
+        }
+        textView.setText(builder);
+    }
+
+    /**
+     * Measures the cost of child static transformation per child, with and
+     * without cached transformation matrices.
+     * 
+     * @param results
+     *            list to add results to
+     * @param childCount
+     *            number of children transformed on each frame
+     * @param coverWidth
+     *            the cover width
+     * @param coverHeight
+     *            the cover height
+     */
+    private void benchmarkTransformations(final List<MicroBenchmark.Result> results, final int childCount,
+            final int coverWidth, final int coverHeight) {
+        final BenchmarkCoverFlow coverFlow = new BenchmarkCoverFlow(this);
+        coverFlow.layout(0, 0, coverWidth * childCount / 2, coverHeight);
+        final ImageView[] children = new ImageView[childCount];
+        for (int i = 0; i < childCount; i++) {
+            children[i] = new ImageView(this);
+            children[i].setLayoutParams(new CoverFlow.LayoutParams(coverWidth, coverHeight));
+            final int left = (i - childCount / 2) * coverWidth / 2;
+            children[i].layout(left, 0, left + coverWidth, coverHeight);
+        }
+        final Transformation transformation = new Transformation();
+        final Runnable frame = new Runnable() {
+            @Override
+            public void run() {
+                for (final ImageView child : children) {
+                    coverFlow.transform(child, transformation);
+                }
+            }
+        };
+        final String parameters = " " + childCount + " covers " + coverWidth + "x" + coverHeight;
+        coverFlow.setTransformCacheEnabled(false);
+        results.add(MicroBenchmark.measure("transform (camera)" + parameters, TRANSFORM_RUNS, childCount, frame));
+        coverFlow.setTransformCacheEnabled(true);
+        results.add(MicroBenchmark.measure("transform (cached)" + parameters, TRANSFORM_RUNS, childCount, frame));
+    }
+
+    /**
+     * Measures the cost of creating single reflected image, with the initial
+     * implementation allocating new matrix, paints, shader and intermediate
+     * bitmap on each call and with the reflecting adapter reusing them.
+     * 
+     * @param results
+     *            list to add results to
+     * @param coverWidth
+     *            the cover width
+     * @param coverHeight
+     *            the cover height
+     */
+    private void benchmarkReflections(final List<MicroBenchmark.Result> results, final int coverWidth,
+            final int coverHeight) {
+        final Bitmap cover = Bitmap.createBitmap(coverWidth, coverHeight, Config.ARGB_8888);
+        cover.eraseColor(Color.WHITE);
+        final ReflectingImageAdapter adapter = new ReflectingImageAdapter(new ResourceImageAdapter(this));
+        adapter.setWidthRatio(REFLECTION_RATIO);
+        adapter.setReflectionGap(REFLECTION_GAP);
+        final Runnable allocating = new Runnable() {
+            @Override
+            public void run() {
+                createReflectedImageAllocating(cover).recycle();
+            }
+        };
+        final Runnable reusing = new Runnable() {
+            @Override
+            public void run() {
+                adapter.createReflectedImages(cover).recycle();
+            }
+        };
+        final String parameters = " " + coverWidth + "x" + coverHeight;
+        results.add(MicroBenchmark.measure("reflection (allocating)" + parameters, REFLECTION_RUNS, 1, allocating));
+        results.add(MicroBenchmark.measure("reflection (reusing)" + parameters, REFLECTION_RUNS, 1, reusing));
+        cover.recycle();
+    }
+
+    /**
+     * Measures the cost of getting bitmap from the adapter when it is cached
+     * and when it has to be decoded.
+     * 
+     * @param results
+     *            list to add results to
+     * @param coverWidth
+     *            the cover width
+     * @param coverHeight
+     *            the cover height
+     */
+    private void benchmarkGetItem(final List<MicroBenchmark.Result> results, final int coverWidth,
+            final int coverHeight) {
+        final ResourceImageAdapter adapter = new ResourceImageAdapter(this);
+        adapter.setWidth(coverWidth);
+        adapter.setHeight(coverHeight);
+        final int count = adapter.getCount();
+        for (int i = 0; i < count; i++) {
+            adapter.getItem(i);
+        }
+        final Runnable hit = new Runnable() {
+            private int position;
+
+            @Override
+            public void run() {
+                adapter.getItem(position);
+                position = (position + 1) % count;
+            }
+        };
+        final Runnable miss = new Runnable() {
+            private int position;
+
+            @Override
+            public void run() {
+                adapter.getBitmapCache().remove(position);
+                adapter.getItem(position);
+                position = (position + 1) % count;
+            }
+        };
+        final String parameters = " " + coverWidth + "x" + coverHeight;
+        results.add(MicroBenchmark.measure("getItem (hit)" + parameters, CACHE_HIT_RUNS, 1, hit));
+        results.add(MicroBenchmark.measure("getItem (miss)" + parameters, DECODE_WARMUP_RUNS, CACHE_MISS_RUNS, 1,
+                miss));
+        adapter.getBitmapCache().clear();
+    }
+
+    /**
+     * The initial reflection implementation, kept as the baseline.
+     * 
+     * @param originalImage
+     *            the original image
+     * @return the bitmap with reflection
+     */
+    private static Bitmap createReflectedImageAllocating(final Bitmap originalImage) {
+        final int width = originalImage.getWidth();
+        final int height = originalImage.getHeight();
+        final Matrix matrix = new Matrix();
+        matrix.preScale(1, -1);
+        final Bitmap reflectionImage = Bitmap.createBitmap(originalImage, 0, (int) (height * REFLECTION_RATIO),
+                width, (int) (height - height * REFLECTION_RATIO), matrix, false);
+        final Bitmap bitmapWithReflection = Bitmap.createBitmap(width, (int) (height + height * REFLECTION_RATIO),
+                Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmapWithReflection);
+        canvas.drawBitmap(originalImage, 0, 0, null);
+        final Paint deafaultPaint = new Paint();
+        deafaultPaint.setColor(Color.TRANSPARENT);
+        canvas.drawBitmap(reflectionImage, 0, height + REFLECTION_GAP, null);
+        final Paint paint = new Paint();
+        final LinearGradient shader = new LinearGradient(0, originalImage.getHeight(), 0,
+                bitmapWithReflection.getHeight() + REFLECTION_GAP, 0x70ffffff, 0x00ffffff, TileMode.CLAMP);
+        paint.setShader(shader);
+        paint.setXfermode(new PorterDuffXfermode(Mode.DST_IN));
+        canvas.drawRect(0, height, width, bitmapWithReflection.getHeight() + REFLECTION_GAP, paint);
+        reflectionImage.recycle();
+        return bitmapWithReflection;
+    }
+
+    /**
+     * Cover flow exposing the child transformation to the benchmark.
+     */
+    private static final class BenchmarkCoverFlow extends CoverFlow {
+
+        /**
+         * Creates the cover flow.
+         * 
+         * @param context
+         *            the context
+         */
+        BenchmarkCoverFlow(final Context context) {
+            super(context);
+        }
+
+        /**
+         * Computes static transformation of the child.
+         * 
+         * @param child
+         *            the child
+         * @param t
+         *            the transformation
+         */
+        void transform(final View child, final Transformation t) {
+            getChildStaticTransformation(child, t);
+        }
+    }
+}
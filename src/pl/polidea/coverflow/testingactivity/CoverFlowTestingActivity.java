@@ -1,16 +1,23 @@
 package pl.polidea.coverflow.testingactivity;
 
+import java.io.File;
+
+import pl.polidea.coverflow.AbstractCoverFlowImageAdapter;
 import pl.polidea.coverflow.CoverFlow;
+import pl.polidea.coverflow.CoverFlowCacheHolder;
+import pl.polidea.coverflow.CoverFlowMetricsRecorder;
+import pl.polidea.coverflow.DiskBitmapCache;
 import pl.polidea.coverflow.R;
 import pl.polidea.coverflow.ReflectingImageAdapter;
 import pl.polidea.coverflow.ResourceImageAdapter;
 import android.app.Activity;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.AdapterView.OnItemSelectedListener;
-import android.widget.BaseAdapter;
 import android.widget.TextView;
 
 /****
@@ -18,16 +25,33 @@ import android.widget.TextView;
  */
 public class CoverFlowTestingActivity extends Activity {
 
+    /** The Constant TAG. */
+    private static final String TAG = CoverFlowTestingActivity.class.getSimpleName();
+
+    /** The Constant REFLECTION_CACHE_SIZE. */
+    private static final long REFLECTION_CACHE_SIZE = 4 * 1024 * 1024;
+
     private TextView textView;
 
+    /** Metrics of both cover flows, logged when the activity is paused. */
+    private final CoverFlowMetricsRecorder metrics = new CoverFlowMetricsRecorder();
+
+    /** Caches of both cover flows, kept across configuration changes. */
+    private CoverFlowCacheHolder[] cacheHolders;
+
     /*
      * (non-Javadoc)
      * 
      * @see android.app.Activity#onCreate(android.os.Bundle)
      */
     @Override
+    @SuppressWarnings("deprecation")
     protected void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        cacheHolders = (CoverFlowCacheHolder[]) getLastNonConfigurationInstance();
+        if (cacheHolders == null) {
+            cacheHolders = new CoverFlowCacheHolder[] { new CoverFlowCacheHolder(), new CoverFlowCacheHolder() };
+        }
 
         setContentView(R.layout.main);
         textView = (TextView) findViewById(this.getResources()
@@ -36,10 +60,47 @@ public class CoverFlowTestingActivity extends Activity {
         // this library as library.
         final CoverFlow coverFlow1 = (CoverFlow) findViewById(this.getResources().getIdentifier("coverflow", "id",
                 "pl.polidea.coverflow"));
-        setupCoverFlow(coverFlow1, false);
+        setupCoverFlow(coverFlow1, false, cacheHolders[0]);
         final CoverFlow reflectingCoverFlow = (CoverFlow) findViewById(this.getResources().getIdentifier(
                 "coverflowReflect", "id", "pl.polidea.coverflow"));
-        setupCoverFlow(reflectingCoverFlow, true);
+        setupCoverFlow(reflectingCoverFlow, true, cacheHolders[1]);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see android.app.Activity#onRetainNonConfigurationInstance()
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    public Object onRetainNonConfigurationInstance() {
+        return cacheHolders;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see android.app.Activity#onDestroy()
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (isFinishing()) {
+            for (final CoverFlowCacheHolder cacheHolder : cacheHolders) {
+                cacheHolder.clear();
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see android.app.Activity#onPause()
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        Log.i(TAG, metrics.toString());
     }
 
     /**
@@ -49,19 +110,44 @@ public class CoverFlowTestingActivity extends Activity {
      *            the m cover flow
      * @param reflect
      *            the reflect
+     * @param cacheHolder
+     *            the cache holder
      */
-    private void setupCoverFlow(final CoverFlow mCoverFlow, final boolean reflect) {
-        BaseAdapter coverImageAdapter;
+    private void setupCoverFlow(final CoverFlow mCoverFlow, final boolean reflect,
+            final CoverFlowCacheHolder cacheHolder) {
+        final AbstractCoverFlowImageAdapter coverImageAdapter;
         if (reflect) {
             coverImageAdapter = new ReflectingImageAdapter(new ResourceImageAdapter(this));
         } else {
             coverImageAdapter = new ResourceImageAdapter(this);
         }
+        // covers are decoded on background threads, which keeps the reflection
+        // disk cache off the UI thread
+        coverImageAdapter.setAsyncLoading(true);
+        mCoverFlow.setReflectionDiskCache(new DiskBitmapCache(new File(getCacheDir(), "reflections"),
+                REFLECTION_CACHE_SIZE, getVersionCode()));
+        mCoverFlow.setMetrics(metrics);
+        mCoverFlow.setCacheHolder(cacheHolder);
         mCoverFlow.setAdapter(coverImageAdapter);
         mCoverFlow.setSelection(2, true);
         setupListeners(mCoverFlow);
     }
 
+    /**
+     * Gets the version code of the application, which versions the cached
+     * reflections.
+     * 
+     * @return the version code
+     */
+    private int getVersionCode() {
+        try {
+            return getPackageManager().getPackageInfo(getPackageName(), 0).versionCode;
+        } catch (final NameNotFoundException e) {
+            Log.w(TAG, "Could not read version of " + getPackageName(), e);
+            return 0;
+        }
+    }
+
     /**
      * Sets the up listeners.
      * 
@@ -0,0 +1,140 @@
+package pl.polidea.coverflow.testingactivity;
+
+import android.os.Debug;
+
+/**
+ * Minimal harness measuring time and memory allocated per operation on the
+ * device.
+ */
+final class MicroBenchmark {
+
+    /** The Constant WARMUP_RUNS. */
+    private static final int WARMUP_RUNS = 100;
+
+    private MicroBenchmark() {
+        // utility class
+    }
+
+    /**
+     * Result of a single benchmark.
+     */
+    static final class Result {
+
+        /** The name. */
+        private final String name;
+
+        /** The nanos per op. */
+        private final double nanosPerOp;
+
+        /** The bytes per op. */
+        private final double bytesPerOp;
+
+        /** The allocations per op. */
+        private final double allocationsPerOp;
+
+        /**
+         * Creates the result.
+         * 
+         * @param name
+         *            the name
+         * @param nanosPerOp
+         *            the nanos per op
+         * @param bytesPerOp
+         *            the bytes per op
+         * @param allocationsPerOp
+         *            the allocations per op
+         */
+        Result(final String name, final double nanosPerOp, final double bytesPerOp, final double allocationsPerOp) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+            this.allocationsPerOp = allocationsPerOp;
+        }
+
+        /**
+         * Gets the nanos per op.
+         * 
+         * @return the nanos per op
+         */
+        double getNanosPerOp() {
+            return nanosPerOp;
+        }
+
+        /**
+         * Gets the bytes per op.
+         * 
+         * @return the bytes per op
+         */
+        double getBytesPerOp() {
+            return bytesPerOp;
+        }
+
+        /**
+         * Gets the number of objects allocated per op.
+         * 
+         * @return the allocations per op
+         */
+        double getAllocationsPerOp() {
+            return allocationsPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f ns/op, %.1f B/op, %.2f allocs/op", name, nanosPerOp, bytesPerOp,
+                    allocationsPerOp);
+        }
+    }
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param name
+     *            name of the benchmark
+     * @param runs
+     *            number of measured runs
+     * @param opsPerRun
+     *            number of operations each run performs
+     * @param run
+     *            the code to measure
+     * @return the result
+     */
+    static Result measure(final String name, final int runs, final int opsPerRun, final Runnable run) {
+        return measure(name, WARMUP_RUNS, runs, opsPerRun, run);
+    }
+
+    /**
+     * Runs the benchmark with the number of warmup runs specified, for
+     * operations too slow for the default warmup.
+     * 
+     * @param name
+     *            name of the benchmark
+     * @param warmupRuns
+     *            number of runs before measuring
+     * @param runs
+     *            number of measured runs
+     * @param opsPerRun
+     *            number of operations each run performs
+     * @param run
+     *            the code to measure
+     * @return the result
+     */
+    @SuppressWarnings("deprecation")
+    static Result measure(final String name, final int warmupRuns, final int runs, final int opsPerRun,
+            final Runnable run) {
+        for (int i = 0; i < warmupRuns; i++) {
+            run.run();
+        }
+        Debug.resetThreadAllocSize();
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        final long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            run.run();
+        }
+        final long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        final long ops = (long) runs * opsPerRun;
+        return new Result(name, (double) elapsed / ops, (double) Debug.getThreadAllocSize() / ops,
+                (double) Debug.getThreadAllocCount() / ops);
+    }
+}
@@ -0,0 +1,167 @@
+package pl.polidea.coverflow;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import junit.framework.TestCase;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+/**
+ * Requests bitmaps from an adapter on several threads at once, the way
+ * background loaders and the UI thread do, and checks that the adapter and
+ * its cache stay consistent.
+ */
+public class AdapterStressTest extends TestCase {
+
+    /** The Constant THREADS. */
+    private static final int THREADS = 4;
+
+    /** The Constant OPERATIONS_PER_THREAD. */
+    private static final int OPERATIONS_PER_THREAD = 500;
+
+    /** The Constant COUNT. */
+    private static final int COUNT = 20;
+
+    /** The Constant WIDTH. */
+    private static final int WIDTH = 16;
+
+    /** The Constant HEIGHT. */
+    private static final int HEIGHT = 24;
+
+    /** Size of one bitmap in bytes. */
+    private static final int BITMAP_SIZE = WIDTH * HEIGHT * 4;
+
+    /**
+     * Adapter counting bitmaps created for each position.
+     */
+    private static final class CountingAdapter extends AbstractCoverFlowImageAdapter {
+
+        /** Number of bitmaps created for each position. */
+        private final AtomicIntegerArray created = new AtomicIntegerArray(COUNT);
+
+        @Override
+        public int getCount() {
+            return COUNT;
+        }
+
+        @Override
+        protected Bitmap createBitmap(final int position) {
+            created.incrementAndGet(position);
+            return Bitmap.createBitmap(WIDTH, HEIGHT, Config.ARGB_8888);
+        }
+    }
+
+    /**
+     * Operation made by each thread for random positions.
+     */
+    private interface Operation {
+
+        /**
+         * Runs the operation.
+         *
+         * @param position
+         *            the position
+         * @param random
+         *            random of the thread
+         */
+        void run(int position, Random random);
+    }
+
+    /**
+     * Runs the operation on all threads at once.
+     *
+     * @param operation
+     *            the operation
+     * @throws Throwable
+     *             the first failure of any thread
+     */
+    private static void runConcurrently(final Operation operation) throws Throwable {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(THREADS);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int i = 0; i < THREADS; i++) {
+            final Random random = new Random(i);
+            new Thread("AdapterStressTest #" + i) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int op = 0; op < OPERATIONS_PER_THREAD && failure.get() == null; op++) {
+                            operation.run(random.nextInt(COUNT), random);
+                        }
+                    } catch (final Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        finish.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        finish.await();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Tests that concurrent requests for a position create its bitmap once,
+     * and all of them get that bitmap, while the cache holds all positions.
+     *
+     * @throws Throwable
+     *             failure of any thread
+     */
+    public void testEachPositionGetsOneBitmap() throws Throwable {
+        final CountingAdapter adapter = new CountingAdapter();
+        adapter.setBitmapCache(new LruBitmapCache((long) BITMAP_SIZE * COUNT));
+        final AtomicReferenceArray<Bitmap> bitmaps = new AtomicReferenceArray<Bitmap>(COUNT);
+
+        runConcurrently(new Operation() {
+            @Override
+            public void run(final int position, final Random random) {
+                final Bitmap bitmap = adapter.getItem(position);
+                assertNotNull(bitmap);
+                if (!bitmaps.compareAndSet(position, null, bitmap)) {
+                    assertSame("Bitmap at position " + position, bitmaps.get(position), bitmap);
+                }
+            }
+        });
+
+        for (int position = 0; position < COUNT; position++) {
+            assertTrue("Bitmaps created at position " + position, adapter.created.get(position) <= 1);
+        }
+    }
+
+    /**
+     * Tests that the cache stays within its budget and counts every lookup
+     * while bitmaps are evicted and the selection moves.
+     *
+     * @throws Throwable
+     *             failure of any thread
+     */
+    public void testCacheStaysWithinBudget() throws Throwable {
+        final CountingAdapter adapter = new CountingAdapter();
+        final LruBitmapCache cache = new LruBitmapCache(BITMAP_SIZE * 3, 1);
+        adapter.setBitmapCache(cache);
+
+        runConcurrently(new Operation() {
+            @Override
+            public void run(final int position, final Random random) {
+                final Bitmap bitmap = adapter.getItem(position);
+                assertNotNull(bitmap);
+                assertFalse(bitmap.isRecycled());
+                assertTrue("Cache size " + cache.getSize(), cache.getSize() <= cache.getMaxSize());
+                if (random.nextInt(10) == 0) {
+                    adapter.setSelectedPosition(position);
+                }
+            }
+        });
+
+        assertTrue("Cache size " + cache.getSize(), cache.getSize() <= cache.getMaxSize());
+        assertEquals(THREADS * OPERATIONS_PER_THREAD, cache.getHitCount() + cache.getMissCount());
+    }
+}
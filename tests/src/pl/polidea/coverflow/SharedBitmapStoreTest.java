@@ -0,0 +1,133 @@
+package pl.polidea.coverflow;
+
+import junit.framework.TestCase;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+/**
+ * Checks that bitmaps shared through the store and cached the way adapters
+ * cache them are released as often as they are retained, so that they go
+ * back to the pool once the cache lets go of them.
+ */
+public class SharedBitmapStoreTest extends TestCase {
+
+    /** The Constant SIZE. */
+    private static final int SIZE = 4;
+
+    /** The pool. */
+    private BitmapPool pool;
+
+    /** The store. */
+    private SharedBitmapStore store;
+
+    /** The cache. */
+    private LruBitmapCache cache;
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        pool = new BitmapPool(1024 * 1024);
+        store = new SharedBitmapStore();
+        cache = new LruBitmapCache(1024 * 1024);
+        // releases bitmaps like AbstractCoverFlowImageAdapter does
+        cache.setOnBitmapRemovedListener(new BitmapCache.OnBitmapRemovedListener() {
+            @Override
+            public void onBitmapRemoved(final int position, final Bitmap bitmap) {
+                store.release(bitmap);
+                pool.release(bitmap);
+            }
+        });
+    }
+
+    /**
+     * Obtains the bitmap from the store and caches it, retaining it like
+     * AbstractCoverFlowImageAdapter does.
+     *
+     * @param position
+     *            the position
+     * @param key
+     *            the key
+     * @return the bitmap cached
+     */
+    private Bitmap putCached(final int position, final String key) {
+        final Bitmap bitmap = store.obtain(key, pool, new SharedBitmapStore.Factory() {
+            @Override
+            public Bitmap create() {
+                return Bitmap.createBitmap(SIZE, SIZE, Config.ARGB_8888);
+            }
+        });
+        pool.retain(bitmap);
+        cache.put(position, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Tests that putting the same bitmap at the same position twice does not
+     * leave references behind.
+     */
+    public void testRepeatedPutReleasesAllReferences() {
+        final Bitmap first = putCached(0, "a");
+        final Bitmap second = putCached(0, "a");
+        assertSame(first, second);
+        assertEquals(1, store.getBitmapCount());
+
+        cache.clear();
+
+        assertEquals(0, store.getBitmapCount());
+        assertSame(first, pool.get(SIZE, SIZE, Config.ARGB_8888));
+    }
+
+    /**
+     * Tests that bitmap overwritten when bitmaps are moved to new positions
+     * is released.
+     */
+    public void testRemapReleasesOverwrittenBitmap() {
+        final Bitmap moved = putCached(0, "a");
+        final Bitmap overwritten = putCached(1, "b");
+
+        cache.remap(new int[] { 1, 1 });
+
+        assertEquals(1, store.getBitmapCount());
+        assertSame(overwritten, pool.get(SIZE, SIZE, Config.ARGB_8888));
+        assertSame(moved, cache.get(1));
+
+        cache.clear();
+
+        assertEquals(0, store.getBitmapCount());
+        assertSame(moved, pool.get(SIZE, SIZE, Config.ARGB_8888));
+    }
+
+    /**
+     * Tests that bitmap shared by two caches goes to the pool only when both
+     * released it.
+     */
+    public void testSharedBitmapReleasedByLastCache() {
+        final LruBitmapCache otherCache = new LruBitmapCache(1024 * 1024);
+        otherCache.setOnBitmapRemovedListener(new BitmapCache.OnBitmapRemovedListener() {
+            @Override
+            public void onBitmapRemoved(final int position, final Bitmap bitmap) {
+                store.release(bitmap);
+                pool.release(bitmap);
+            }
+        });
+        final Bitmap bitmap = putCached(0, "a");
+        assertSame(bitmap, store.obtain("a", pool, null));
+        pool.retain(bitmap);
+        otherCache.put(3, bitmap);
+
+        cache.clear();
+
+        assertEquals(1, store.getBitmapCount());
+        assertNull(pool.get(SIZE, SIZE, Config.ARGB_8888));
+
+        otherCache.clear();
+
+        assertEquals(0, store.getBitmapCount());
+        assertSame(bitmap, pool.get(SIZE, SIZE, Config.ARGB_8888));
+    }
+}